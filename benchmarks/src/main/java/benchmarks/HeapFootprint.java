@@ -0,0 +1,40 @@
+package benchmarks;
+
+import model.Library;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+// Занятая куча после загрузки хранилища: разница между заполненной библиотекой и пустой.
+// Запуск: java -cp benchmarks/target/benchmarks.jar benchmarks.HeapFootprint [выдач, по умолчанию 1000000]
+public final class HeapFootprint {
+    private HeapFootprint() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int entities = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        LibraryDataSet dataSet = LibraryDataSet.generate(entities);
+        try {
+            long before = usedHeap();
+            Library library = new Library(dataSet.storageDir.toString());
+            library.initLibrary();
+            long after = usedHeap();
+            double perMillion = (after - before) * 1_000_000.0 / entities;
+            System.out.printf("Выдач: %d, книг: %d, читателей: %d%n", entities, dataSet.bookCount, dataSet.userCount);
+            System.out.printf("Куча: %.1f МБ, %.1f МБ на миллион выдач, %.1f байт на выдачу%n",
+                    (after - before) / 1048576.0, perMillion / 1048576.0, (after - before) / (double) entities);
+            library.close();
+        } finally {
+            dataSet.delete();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
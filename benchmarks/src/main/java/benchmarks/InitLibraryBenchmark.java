@@ -0,0 +1,59 @@
+package benchmarks;
+
+import model.Library;
+import model.StorageConverter;
+import model.StorageFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Полная загрузка хранилища в каждом формате. Каждый вызов - холодный старт новой библиотеки.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InitLibraryBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    int entities;
+
+    @Param({"TEXT", "BINARY", "SEGMENTED"})
+    StorageFormat format;
+
+    private LibraryDataSet dataSet;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.dataSet = LibraryDataSet.generate(this.entities);
+        if (this.format != StorageFormat.TEXT) {
+            StorageConverter.convert(this.dataSet.storageDir.toString(), StorageFormat.TEXT, this.format);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.dataSet.delete();
+    }
+
+    @Benchmark
+    public Library initLibrary() {
+        Library library = new Library(this.dataSet.storageDir.toString());
+        library.setStorageFormat(this.format);
+        library.initLibrary();
+        return library;
+    }
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import model.Book;
+import model.Library;
+import model.Loan;
+import model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Операции библиотеки над загруженным хранилищем. Библиотека работает в режиме журнала
+// без сжатия, поэтому в замер входит дозапись строки журнала, но не перезапись снимков.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LibraryBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    int entities;
+
+    private LibraryDataSet dataSet;
+    private Library library;
+    private int nextUser;
+    private int nextTitle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.dataSet = LibraryDataSet.generate(this.entities);
+        this.library = new Library(this.dataSet.storageDir.toString());
+        this.library.setJournalEnabled(true);
+        this.library.setJournalCompactThreshold(Integer.MAX_VALUE);
+        this.library.initLibrary();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.library.close();
+        this.dataSet.delete();
+    }
+
+    // Выдача и возврат парой: без возврата читатель упирается в лимит, а книги заканчиваются.
+    // Читатели берутся по кругу из второй половины, у которой нет выдач в хранилище.
+    @Benchmark
+    public Loan borrowAndReturn() {
+        int half = this.dataSet.userCount / 2;
+        int userId = half + 1 + (this.nextUser++ % half);
+        int bookId = this.randomBook();
+        Loan loan = this.library.borrowBook(userId, bookId);
+        this.library.returnBook(userId, bookId);
+        return loan;
+    }
+
+    @Benchmark
+    public int addBook() {
+        return this.library.addBook(new Book("Новая книга " + this.nextTitle++, "Автор", 2024, 1));
+    }
+
+    @Benchmark
+    public List<Loan> getExpiredLoans() {
+        return this.library.getExpiredLoans();
+    }
+
+    @Benchmark
+    public List<Loan> getBookLoanHistory() {
+        return this.library.getBookLoanHistory(this.randomBook());
+    }
+
+    // Читатели с историей выдач
+    @Benchmark
+    public List<Loan> getCurrentLoans() {
+        User user = this.library.getUser(1 + ThreadLocalRandom.current().nextInt(this.dataSet.userCount / 2));
+        return user.getCurrentLoans();
+    }
+
+    private int randomBook() {
+        return 1 + ThreadLocalRandom.current().nextInt(this.dataSet.bookCount);
+    }
+}
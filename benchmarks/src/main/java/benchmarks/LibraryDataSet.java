@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Генерация хранилища библиотеки для замеров: entities выдач, по entities / 10 книг и читателей.
+// Выдачи есть только у первой половины читателей, вторая половина свободна для выдач в замерах.
+// Около 5% выдач активны, часть из них просрочена, у каждой книги остаётся хотя бы один
+// свободный экземпляр. Генератор детерминирован.
+final class LibraryDataSet {
+    static final int COPIES_PER_BOOK = 5;
+    private static final int MAX_BOOKS_PER_USER = 3;
+    private static final int HISTORY_DAYS = 3 * 365;
+    private static final int ACTIVE_DAYS = 60;
+
+    final Path storageDir;
+    final int bookCount;
+    final int userCount;
+    final int loanCount;
+
+    private LibraryDataSet(Path storageDir, int bookCount, int userCount, int loanCount) {
+        this.storageDir = storageDir;
+        this.bookCount = bookCount;
+        this.userCount = userCount;
+        this.loanCount = loanCount;
+    }
+
+    static LibraryDataSet generate(int entities) throws IOException {
+        int bookCount = Math.max(entities / 10, 10);
+        int userCount = Math.max(entities / 10, 10);
+        Path storageDir = Files.createTempDirectory("library-bench");
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+
+        int[] activeByBook = new int[bookCount + 1];
+        int[] activeByUser = new int[userCount + 1];
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(storageDir.resolve("loans").toFile()))) {
+            for (int id = 1; id <= entities; id++) {
+                int bookId = 1 + random.nextInt(bookCount);
+                int userId = 1 + random.nextInt(userCount / 2);
+                boolean active = id % 20 == 0
+                        && activeByBook[bookId] < COPIES_PER_BOOK - 1
+                        && activeByUser[userId] < MAX_BOOKS_PER_USER;
+                LocalDate loanDate;
+                String returnDate;
+                if (active) {
+                    activeByBook[bookId]++;
+                    activeByUser[userId]++;
+                    loanDate = today.minusDays(random.nextInt(ACTIVE_DAYS));
+                    returnDate = "";
+                } else {
+                    loanDate = today.minusDays(ACTIVE_DAYS + random.nextInt(HISTORY_DAYS));
+                    returnDate = loanDate.plusDays(1 + random.nextInt(30)).toString();
+                }
+                writer.write(id + ";" + bookId + ";" + userId + ";" + loanDate + ";" + returnDate);
+                writer.newLine();
+            }
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(storageDir.resolve("books").toFile()))) {
+            for (int id = 1; id <= bookCount; id++) {
+                writer.write(id + ";Книга номер " + id + ";Автор " + (id % 1000) + ";" + (1900 + id % 120)
+                        + ";" + COPIES_PER_BOOK + ";" + (COPIES_PER_BOOK - activeByBook[id]));
+                writer.newLine();
+            }
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(storageDir.resolve("users").toFile()))) {
+            for (int id = 1; id <= userCount; id++) {
+                writer.write(id + ";Читатель " + id + ";reader" + id + "@mail.ru");
+                writer.newLine();
+            }
+        }
+        return new LibraryDataSet(storageDir, bookCount, userCount, entities);
+    }
+
+    void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(this.storageDir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package benchmarks;
+
+import model.LatencyHistogram;
+import model.Library;
+import model.StorageConverter;
+import model.StorageFormat;
+import ui.LibraryHttpServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Нагрузочный прогон библиотеки: генерация каталога и читателей, смесь выдач, возвратов и поиска
+// с популярностью книг по Ципфу, отчёт о пропускной способности и перцентилях задержек.
+//
+// Запуск: java -cp benchmarks/target/benchmarks.jar benchmarks.LoadDriver [параметры]
+//   --entities N     размер хранилища: N выдач, N / 10 книг и читателей (100000)
+//   --threads N      число рабочих потоков (4)
+//   --duration S     длительность замера в секундах (30), перед ним прогрев --warmup S (5)
+//   --mode M         closed - поток сразу начинает следующую операцию, open - операции
+//                    поступают с частотой --rate операций в секунду на все потоки (closed)
+//   --mix СМЕСЬ      доли операций, по умолчанию borrow=30,return=30,search=30,user=10
+//   --zipf S         показатель распределения Ципфа для выбора книг (1.0)
+//   --format F       формат хранилища TEXT, BINARY или SEGMENTED (TEXT)
+//   --journal        режим журнала вместо перезаписи снимков
+//   --write-behind MS интервал отложенной записи, 0 - сохранять в потоке операции (0)
+//   --http           операции идут через HTTP API (LibraryHttpServer на свободном порту)
+//
+// В открытом режиме задержка считается от запланированного момента начала операции, поэтому
+// очередь, накопившаяся за медленной операцией, попадает в перцентили (без coordinated omission).
+public final class LoadDriver {
+    enum Operation {
+        BORROW, RETURN, SEARCH, USER
+    }
+
+    private final Config config;
+    private final LibraryDataSet dataSet;
+    private final Library library;
+    private final ZipfDistribution popularity;
+    private final Operation[] mixTable;
+    private final LibraryHttpServer server;
+    private final Target target;
+
+    private LoadDriver(Config config) throws IOException {
+        this.config = config;
+        this.dataSet = LibraryDataSet.generate(config.entities);
+        if (config.format != StorageFormat.TEXT) {
+            StorageConverter.convert(this.dataSet.storageDir.toString(), StorageFormat.TEXT, config.format);
+        }
+        this.library = new Library(this.dataSet.storageDir.toString());
+        this.library.setStorageFormat(config.format);
+        this.library.setJournalEnabled(config.journal);
+        this.library.setWriteBehindInterval(config.writeBehindMillis);
+        this.library.initLibrary();
+        this.popularity = new ZipfDistribution(this.dataSet.bookCount, config.zipf, 7);
+        this.mixTable = buildMixTable(config.mix);
+        if (config.http) {
+            // Без отключения алгоритма Нейгла HTTP-задержки упираются в отложенное подтверждение,
+            // см. Main.startHttp
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            this.server = new LibraryHttpServer(this.library, 0);
+            this.server.start();
+            this.target = new HttpTarget(this.server.getPort());
+        } else {
+            this.server = null;
+            this.target = new LibraryTarget(this.library);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+        System.out.println("Генерация хранилища: " + config.entities + " выдач...");
+        LoadDriver driver = new LoadDriver(config);
+        try {
+            System.out.println("Прогрев " + config.warmupSeconds + " с...");
+            driver.run(config.warmupSeconds);
+            System.out.println("Замер " + config.durationSeconds + " с, потоков: " + config.threads
+                    + ", режим: " + config.mode + (config.mode == Mode.OPEN ? " " + config.rate + " оп/с" : "")
+                    + (driver.server != null ? ", HTTP" + (driver.server.usesVirtualThreads() ? " (виртуальные потоки)" : "") : ""));
+            List<Worker> workers = driver.run(config.durationSeconds);
+            driver.report(workers);
+        } finally {
+            if (driver.server != null) {
+                driver.server.stop();
+            }
+            driver.library.close();
+            driver.dataSet.delete();
+        }
+    }
+
+    private List<Worker> run(int seconds) throws InterruptedException {
+        List<Worker> workers = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(this.config.threads);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        for (int i = 0; i < this.config.threads; i++) {
+            Worker worker = new Worker(i, start, end, done);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        // Выдачи прогона возвращаются, чтобы следующий прогон начинался с тех же лимитов читателей
+        for (Worker worker : workers) {
+            for (int[] loan : worker.borrowed) {
+                this.library.returnBook(loan[0], loan[1]);
+            }
+        }
+        this.library.flush();
+        return workers;
+    }
+
+    private void report(List<Worker> workers) {
+        Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+        Map<Operation, Long> rejected = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            rejected.put(operation, 0L);
+        }
+        LatencyHistogram total = new LatencyHistogram();
+        for (Worker worker : workers) {
+            for (Operation operation : Operation.values()) {
+                latencies.get(operation).add(worker.latencies.get(operation));
+                rejected.merge(operation, worker.rejected.get(operation), Long::sum);
+            }
+        }
+        System.out.printf("%-8s %10s %9s %10s %10s %10s %10s %10s %10s%n",
+                "операция", "всего", "отказов", "оп/с", "p50 мкс", "p90 мкс", "p99 мкс", "p99.9 мкс", "max мкс");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            total.add(histogram);
+            this.printRow(operation.name().toLowerCase(), histogram, rejected.get(operation));
+        }
+        this.printRow("итого", total, rejected.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    private void printRow(String name, LatencyHistogram histogram, long rejected) {
+        System.out.printf(Locale.ROOT, "%-8s %10d %9d %10.0f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                name, histogram.count(), rejected,
+                histogram.count() / (double) this.config.durationSeconds,
+                histogram.percentile(0.5) / 1000.0,
+                histogram.percentile(0.9) / 1000.0,
+                histogram.percentile(0.99) / 1000.0,
+                histogram.percentile(0.999) / 1000.0,
+                histogram.max() / 1000.0);
+    }
+
+    // Таблица из 100 операций в пропорции смеси, операция выбирается случайным индексом
+    private static Operation[] buildMixTable(Map<Operation, Integer> mix) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        if (total <= 0) {
+            throw new IllegalArgumentException("Смесь операций не может быть пустой.");
+        }
+        List<Operation> table = new ArrayList<>();
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            long slots = Math.round(entry.getValue() * 100.0 / total);
+            for (int i = 0; i < slots; i++) {
+                table.add(entry.getKey());
+            }
+        }
+        return table.toArray(new Operation[0]);
+    }
+
+    // Рабочий поток. Читатели делятся между потоками, поэтому возвраты потока относятся
+    // только к его собственным выдачам. Ожидаемые отказы (лимит читателя, нет экземпляров,
+    // книга уже на руках) считаются отдельно и в задержки не входят.
+    private final class Worker implements Runnable {
+        private final int index;
+        private final long start;
+        private final long end;
+        private final CountDownLatch done;
+        private final Random random;
+        private final Deque<int[]> borrowed = new ArrayDeque<>();
+        private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, Long> rejected = new EnumMap<>(Operation.class);
+
+        Worker(int index, long start, long end, CountDownLatch done) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.done = done;
+            this.random = new Random(1000 + index);
+            for (Operation operation : Operation.values()) {
+                this.latencies.put(operation, new LatencyHistogram());
+                this.rejected.put(operation, 0L);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                long interval = config.mode == Mode.OPEN
+                        ? (long) (TimeUnit.SECONDS.toNanos(1) * (double) config.threads / config.rate)
+                        : 0;
+                long scheduled = this.start + interval * this.index / config.threads;
+                while (true) {
+                    long now = System.nanoTime();
+                    if (config.mode == Mode.OPEN) {
+                        if (scheduled > now) {
+                            LockSupport.parkNanos(scheduled - now);
+                        }
+                    } else {
+                        scheduled = Math.max(now, this.start);
+                        if (scheduled > now) {
+                            LockSupport.parkNanos(scheduled - now);
+                        }
+                    }
+                    if (scheduled >= this.end) break;
+                    Operation operation = mixTable[this.random.nextInt(mixTable.length)];
+                    try {
+                        this.execute(operation);
+                        this.latencies.get(operation).record(System.nanoTime() - scheduled);
+                    } catch (RuntimeException e) {
+                        this.rejected.merge(operation, 1L, Long::sum);
+                    }
+                    scheduled += interval;
+                }
+            } finally {
+                this.done.countDown();
+            }
+        }
+
+        private void execute(Operation operation) {
+            switch (operation) {
+                case BORROW -> this.borrow();
+                case RETURN -> {
+                    int[] loan = this.borrowed.pollFirst();
+                    if (loan == null) {
+                        this.borrow();
+                    } else {
+                        target.returnBook(loan[0], loan[1]);
+                    }
+                }
+                case SEARCH -> target.searchBooks("номер " + popularity.next(this.random));
+                case USER -> target.searchUsers("reader" + (1 + this.random.nextInt(dataSet.userCount)));
+            }
+        }
+
+        private void borrow() {
+            int userId = this.nextUser();
+            int bookId = popularity.next(this.random);
+            target.borrowBook(userId, bookId);
+            this.borrowed.addLast(new int[]{userId, bookId});
+        }
+
+        // Читатели второй половины, у которых нет выдач в сгенерированном хранилище, по остатку от числа потоков
+        private int nextUser() {
+            int half = dataSet.userCount / 2;
+            int perThread = Math.max(half / config.threads, 1);
+            return half + 1 + this.index + config.threads * this.random.nextInt(perThread);
+        }
+    }
+
+    enum Mode {
+        CLOSED, OPEN
+    }
+
+    // Куда идут операции: напрямую в Library или через HTTP API. Отказ - RuntimeException.
+    private interface Target {
+        void borrowBook(int userId, int bookId);
+
+        void returnBook(int userId, int bookId);
+
+        void searchBooks(String query);
+
+        void searchUsers(String query);
+    }
+
+    private record LibraryTarget(Library library) implements Target {
+        @Override
+        public void borrowBook(int userId, int bookId) {
+            this.library.borrowBook(userId, bookId);
+        }
+
+        @Override
+        public void returnBook(int userId, int bookId) {
+            this.library.returnBook(userId, bookId);
+        }
+
+        @Override
+        public void searchBooks(String query) {
+            this.library.searchBooks(query, 50);
+        }
+
+        @Override
+        public void searchUsers(String query) {
+            this.library.searchUsers(query, 50);
+        }
+    }
+
+    // Запросы по HTTP/1.1 с повторным использованием соединений, ответ читается целиком
+    private static final class HttpTarget implements Target {
+        private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        private final String base;
+
+        HttpTarget(int port) {
+            this.base = "http://localhost:" + port;
+        }
+
+        @Override
+        public void borrowBook(int userId, int bookId) {
+            this.send("POST", "/borrow?userId=" + userId + "&bookId=" + bookId);
+        }
+
+        @Override
+        public void returnBook(int userId, int bookId) {
+            this.send("POST", "/return?userId=" + userId + "&bookId=" + bookId);
+        }
+
+        @Override
+        public void searchBooks(String query) {
+            this.send("GET", "/books?limit=50&query=" + URLEncoder.encode(query, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void searchUsers(String query) {
+            this.send("GET", "/users?limit=50&query=" + URLEncoder.encode(query, StandardCharsets.UTF_8));
+        }
+
+        private void send(String method, String path) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(this.base + path))
+                    .method(method, HttpRequest.BodyPublishers.noBody())
+                    .build();
+            HttpResponse<String> response;
+            try {
+                response = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("HTTP " + response.statusCode() + ": " + response.body());
+            }
+        }
+    }
+
+    private static final class Config {
+        int entities = 100_000;
+        int threads = 4;
+        int durationSeconds = 30;
+        int warmupSeconds = 5;
+        Mode mode = Mode.CLOSED;
+        int rate = 1000;
+        double zipf = 1.0;
+        StorageFormat format = StorageFormat.TEXT;
+        boolean journal;
+        boolean http;
+        long writeBehindMillis;
+        Map<Operation, Integer> mix = new EnumMap<>(Map.of(
+                Operation.BORROW, 30, Operation.RETURN, 30, Operation.SEARCH, 30, Operation.USER, 10));
+
+        static Config parse(String[] args) {
+            Config config = new Config();
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--journal")) {
+                    config.journal = true;
+                    continue;
+                }
+                if (option.equals("--http")) {
+                    config.http = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Не задано значение параметра " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "--entities" -> config.entities = Integer.parseInt(value);
+                    case "--threads" -> config.threads = Integer.parseInt(value);
+                    case "--duration" -> config.durationSeconds = Integer.parseInt(value);
+                    case "--warmup" -> config.warmupSeconds = Integer.parseInt(value);
+                    case "--mode" -> config.mode = Mode.valueOf(value.toUpperCase());
+                    case "--rate" -> config.rate = Integer.parseInt(value);
+                    case "--zipf" -> config.zipf = Double.parseDouble(value);
+                    case "--format" -> config.format = StorageFormat.valueOf(value.toUpperCase());
+                    case "--write-behind" -> config.writeBehindMillis = Long.parseLong(value);
+                    case "--mix" -> config.mix = parseMix(value);
+                    default -> throw new IllegalArgumentException("Неизвестный параметр " + option);
+                }
+            }
+            if (config.threads <= 0 || config.rate <= 0 || config.durationSeconds <= 0) {
+                throw new IllegalArgumentException("Потоки, частота и длительность должны быть положительными.");
+            }
+            return config;
+        }
+
+        private static Map<Operation, Integer> parseMix(String value) {
+            Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+            for (String part : value.split(",")) {
+                String[] pair = part.split("=");
+                mix.put(Operation.valueOf(pair[0].strip().toUpperCase()), Integer.parseInt(pair[1].strip()));
+            }
+            return mix;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package benchmarks;
+
+import model.Book;
+import model.Loan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Разбор строк текстового хранилища
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    private String bookLine = "123456;Книга номер 123456;Автор 456;1956;5;4";
+    private String activeLoanLine = "987654;123456;54321;2024-02-14;";
+    private String closedLoanLine = "987655;123456;54321;2024-02-14;2024-03-01";
+
+    @Benchmark
+    public Book parseBook() {
+        return Book.fromFileString(this.bookLine);
+    }
+
+    @Benchmark
+    public Loan parseActiveLoan() {
+        return Loan.fromFileString(this.activeLoanLine);
+    }
+
+    @Benchmark
+    public Loan parseClosedLoan() {
+        return Loan.fromFileString(this.closedLoanLine);
+    }
+}
@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Распределение Ципфа над рангами 1..n: ранг k выпадает с вероятностью, пропорциональной 1 / k^exponent.
+// Выборка - двоичный поиск по накопленным вероятностям. Ранги сопоставляются id книг
+// через фиксированную перестановку, чтобы популярные книги не шли подряд.
+final class ZipfDistribution {
+    private final double[] cumulative;
+    private final int[] ids;
+
+    ZipfDistribution(int n, double exponent, long seed) {
+        this.cumulative = new double[n];
+        double sum = 0;
+        for (int rank = 1; rank <= n; rank++) {
+            sum += 1 / Math.pow(rank, exponent);
+            this.cumulative[rank - 1] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            this.cumulative[i] /= sum;
+        }
+        this.ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            this.ids[i] = i + 1;
+        }
+        Random random = new Random(seed);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = this.ids[i];
+            this.ids[i] = this.ids[j];
+            this.ids[j] = swap;
+        }
+    }
+
+    // id от 1 до n
+    int next(Random random) {
+        int index = Arrays.binarySearch(this.cumulative, random.nextDouble());
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return this.ids[Math.min(index, this.ids.length - 1)];
+    }
+}
@@ -1,7 +1,39 @@
+import model.Library;
+import ui.LibraryHttpServer;
 import ui.LibraryUI;
 
+import java.io.IOException;
+
 public class Main {
-    public static void main(String[] args) {
+    private static final int DEFAULT_HTTP_PORT = 8080;
+
+    // Без аргументов - консольное меню, с --http [порт] - HTTP API
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--http")) {
+            startHttp(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_HTTP_PORT);
+            return;
+        }
         new LibraryUI().start();
     }
-}
\ No newline at end of file
+
+    private static void startHttp(int port) throws IOException {
+        // Сервер JDK отправляет заголовки и тело ответа отдельными пакетами. С алгоритмом Нейгла
+        // тело ждёт подтверждения заголовков, а клиент откладывает подтверждение до 40 мс.
+        // Свойство читается при первом создании сервера, явно заданное значение не меняется.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        Library library = new Library();
+        library.initLibrary();
+        library.getLoadStats().forEach(System.out::println);
+        library.getMetrics().register("library");
+        LibraryHttpServer server = new LibraryHttpServer(library, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            library.close();
+        }));
+        server.start();
+        System.out.println("HTTP API библиотеки: http://localhost:" + server.getPort()
+                + (server.usesVirtualThreads() ? " (виртуальные потоки)" : ""));
+    }
+}
@@ -0,0 +1,154 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+// Двоичный формат хранилища.
+// Файл: магическое число, версия формата, затем записи, каждая с маркером 1; в конце маркер 0.
+// Числа - 4 байта, даты - номер дня от 1970-01-01, строки - длина и байты UTF-8.
+final class BinaryStorage {
+    static final int BOOKS_MAGIC = 0x4C42424B; // "LBBK"
+    static final int USERS_MAGIC = 0x4C425553; // "LBUS"
+    static final int LOANS_MAGIC = 0x4C424C4E; // "LBLN"
+    static final short VERSION = 1;
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryStorage() {
+    }
+
+    static void writeBooks(OutputStream stream, Iterable<Book> books) throws IOException {
+        DataOutputStream out = openWriter(stream, BOOKS_MAGIC);
+        for (Book book : books) {
+            out.writeByte(1);
+            out.writeInt(book.getId());
+            writeString(out, book.getTitle());
+            writeString(out, book.getAuthor());
+            out.writeInt(book.getYear());
+            long copies = book.getCopies();
+            out.writeInt(Book.totalOf(copies));
+            out.writeInt(Book.availableOf(copies));
+        }
+        out.writeByte(0);
+        out.flush();
+    }
+
+    // Авторы берутся из словаря authors
+    static void readBooks(String path, StringDictionary authors, Consumer<Book> consumer) throws IOException {
+        try (DataInputStream in = openReader(path, BOOKS_MAGIC)) {
+            if (in == null) return;
+            while (in.readByte() != 0) {
+                int id = in.readInt();
+                String title = readString(in);
+                StringDictionary.Entry author = authors.intern(readString(in));
+                int year = in.readInt();
+                int totalCopies = in.readInt();
+                int availableCopies = in.readInt();
+                consumer.accept(new Book(id, title, author, year, totalCopies, availableCopies));
+            }
+        }
+    }
+
+    static void writeUsers(OutputStream stream, Iterable<User> users) throws IOException {
+        DataOutputStream out = openWriter(stream, USERS_MAGIC);
+        for (User user : users) {
+            out.writeByte(1);
+            out.writeInt(user.getId());
+            writeString(out, user.getName());
+            writeString(out, user.getEmail());
+        }
+        out.writeByte(0);
+        out.flush();
+    }
+
+    static void readUsers(String path, Consumer<User> consumer) throws IOException {
+        try (DataInputStream in = openReader(path, USERS_MAGIC)) {
+            if (in == null) return;
+            while (in.readByte() != 0) {
+                int id = in.readInt();
+                String name = readString(in);
+                String email = readString(in);
+                consumer.accept(new User(id, name, email));
+            }
+        }
+    }
+
+    static void writeLoans(OutputStream stream, Iterable<Loan> loans) throws IOException {
+        DataOutputStream out = openWriter(stream, LOANS_MAGIC);
+        for (Loan loan : loans) {
+            out.writeByte(1);
+            out.writeInt(loan.getId());
+            out.writeInt(loan.getBookId());
+            out.writeInt(loan.getUserId());
+            out.writeInt((int) loan.getLoanDate().toEpochDay());
+            LocalDate returnDate = loan.getReturnDate();
+            out.writeInt(returnDate != null ? (int) returnDate.toEpochDay() : NO_DATE);
+        }
+        out.writeByte(0);
+        out.flush();
+    }
+
+    static void readLoans(String path, Consumer<Loan> consumer) throws IOException {
+        try (DataInputStream in = openReader(path, LOANS_MAGIC)) {
+            if (in == null) return;
+            while (in.readByte() != 0) {
+                int id = in.readInt();
+                int bookId = in.readInt();
+                int userId = in.readInt();
+                LocalDate loanDate = LocalDate.ofEpochDay(in.readInt());
+                int returnDay = in.readInt();
+                LocalDate returnDate = returnDay != NO_DATE ? LocalDate.ofEpochDay(returnDay) : null;
+                consumer.accept(new Loan(id, bookId, userId, loanDate, returnDate));
+            }
+        }
+    }
+
+    private static DataOutputStream openWriter(OutputStream stream, int magic) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+        out.writeInt(magic);
+        out.writeShort(VERSION);
+        return out;
+    }
+
+    // Открывает файл и проверяет заголовок; null, если файла нет
+    private static DataInputStream openReader(String path, int magic) throws IOException {
+        File file = new File(path);
+        if (!file.exists()) return null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            if (in.readInt() != magic) {
+                throw new IllegalArgumentException("Файл " + path + " не является хранилищем библиотеки нужного типа.");
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Неподдерживаемая версия формата " + version + " в файле " + path);
+            }
+            return in;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
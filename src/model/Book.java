@@ -6,20 +6,51 @@ import exceptions.NoBooksAvailableException;
 import java.time.Year;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Book {
     private final int id;
     private final String title;
-    private final String author;
+    // Название в нижнем регистре для поиска и сравнения, совпадает с title, если оно уже в нижнем регистре
+    private final String titleKey;
+    // Автор вместе с формой в нижнем регистре. Книги, которые создаёт библиотека (загрузка,
+    // журнал, импорт), берут его из словаря авторов библиотеки и делят одну строку.
+    private final StringDictionary.Entry author;
     private final int year;
-    private int totalCopies;
-    private int availableCopies;
+    // Общее (старшие 32 бита) и доступное (младшие 32 бита) количество экземпляров.
+    // Меняются вместе одной операцией compareAndSet, без блокировок.
+    private final AtomicLong copies;
     private static final AtomicInteger counter = new AtomicInteger(0);
 
     public Book(int id, String title, String author, int year, int totalCopies, int availableCopies) {
+        this(id, title, author != null ? StringDictionary.Entry.of(author) : null, year, totalCopies, availableCopies);
+    }
+
+    // Автор из словаря библиотеки
+    Book(int id, String title, StringDictionary.Entry author, int year, int totalCopies, int availableCopies) {
         if (id <= 0) {
             throw new BookValidationException("ID книги должен быть положительным числом.");
         }
+        validate(title, author != null ? author.value() : null, year, totalCopies, availableCopies);
+        this.id = id;
+        counter.accumulateAndGet(this.id, Math::max);
+        this.title = title;
+        this.titleKey = StringDictionary.fold(title);
+        this.author = author;
+        this.year = year;
+        this.copies = new AtomicLong(pack(totalCopies, availableCopies));
+    }
+
+    public Book(int id, String title, String author, int year, int totalCopies) {
+        this(id, title, author, year, totalCopies, totalCopies);
+    }
+
+    public Book(String title, String author, int year, int totalCopies) {
+        this(nextId(), title, author, year, totalCopies);
+    }
+
+    // Правила полей книги без создания самой книги, например для строк импорта
+    static void validate(String title, String author, int year, int totalCopies, int availableCopies) {
         if (title == null || title.isBlank()) {
             throw new BookValidationException("Название книги не может быть пустым.");
         }
@@ -38,21 +69,6 @@ public class Book {
         if (totalCopies < availableCopies) {
             throw new BookValidationException("Количество доступных экземпляров книги не может превышать имеющиеся.");
         }
-        this.id = id;
-        counter.accumulateAndGet(this.id, Math::max);
-        this.title = title;
-        this.author = author;
-        this.year = year;
-        this.totalCopies = totalCopies;
-        this.availableCopies = availableCopies;
-    }
-
-    public Book(int id, String title, String author, int year, int totalCopies) {
-        this(id, title, author, year, totalCopies, totalCopies);
-    }
-
-    public Book(String title, String author, int year, int totalCopies) {
-        this(nextId(), title, author, year, totalCopies);
     }
 
     public int getId() {
@@ -64,7 +80,15 @@ public class Book {
     }
 
     public String getAuthor() {
-        return this.author;
+        return this.author.value();
+    }
+
+    String getTitleKey() {
+        return this.titleKey;
+    }
+
+    String getAuthorKey() {
+        return this.author.folded();
     }
 
     public int getYear() {
@@ -72,82 +96,157 @@ public class Book {
     }
 
     public int getTotalCopies() {
-        return this.totalCopies;
+        return totalOf(this.copies.get());
     }
 
     public void setTotalCopies(int totalCopies) {
         if (totalCopies < 0) {
             throw new BookValidationException("Количество экземпляров книги не может быть отрицательным.");
         }
-        if (totalCopies < this.totalCopies) {
-            throw new BookValidationException("Нельзя уменьшить количество экземпляров книги.");
+        while (true) {
+            long current = this.copies.get();
+            int total = totalOf(current);
+            if (totalCopies < total) {
+                throw new BookValidationException("Нельзя уменьшить количество экземпляров книги.");
+            }
+            int difference = totalCopies - total;
+            if (this.copies.compareAndSet(current, pack(totalCopies, availableOf(current) + difference))) {
+                return;
+            }
         }
-
-        int difference = totalCopies - this.totalCopies;
-        this.totalCopies = totalCopies;
-        this.availableCopies += difference;
     }
 
     public int getAvailableCopies() {
-        return this.availableCopies;
+        return availableOf(this.copies.get());
+    }
+
+    // Поступление новых экземпляров, возвращает новое общее количество
+    public int addCopies(int count) {
+        if (count < 0) {
+            throw new BookValidationException("Количество экземпляров книги не может быть отрицательным.");
+        }
+        while (true) {
+            long current = this.copies.get();
+            int total = totalOf(current) + count;
+            if (this.copies.compareAndSet(current, pack(total, availableOf(current) + count))) {
+                return total;
+            }
+        }
+    }
+
+    // Восстановление числа доступных экземпляров по активным выдачам
+    void restoreAvailableCopies(int availableCopies) {
+        while (true) {
+            long current = this.copies.get();
+            int total = totalOf(current);
+            if (availableCopies < 0 || availableCopies > total) {
+                throw new BookValidationException("Количество доступных экземпляров книги не может превышать имеющиеся.");
+            }
+            if (this.copies.compareAndSet(current, pack(total, availableCopies))) {
+                return;
+            }
+        }
     }
 
     public boolean giveBook() {
-        if (this.availableCopies <= 0) {
-            throw new NoBooksAvailableException();
+        while (true) {
+            long current = this.copies.get();
+            int available = availableOf(current);
+            if (available <= 0) {
+                throw new NoBooksAvailableException();
+            }
+            if (this.copies.compareAndSet(current, pack(totalOf(current), available - 1))) {
+                return true;
+            }
         }
-        this.availableCopies--;
-        return true;
     }
 
     public boolean returnBook() {
-        if (this.availableCopies < this.totalCopies) {
-            this.availableCopies++;
-            return true;
+        while (true) {
+            long current = this.copies.get();
+            int total = totalOf(current);
+            int available = availableOf(current);
+            if (available >= total) {
+                return false;
+            }
+            if (this.copies.compareAndSet(current, pack(total, available + 1))) {
+                return true;
+            }
         }
-        return false;
+    }
+
+    // Оба счётчика одним значением, для согласованного сохранения
+    long getCopies() {
+        return this.copies.get();
+    }
+
+    private static long pack(int totalCopies, int availableCopies) {
+        return ((long) totalCopies << 32) | (availableCopies & 0xFFFFFFFFL);
+    }
+
+    static int totalOf(long copies) {
+        return (int) (copies >>> 32);
+    }
+
+    static int availableOf(long copies) {
+        return (int) copies;
     }
 
     static int nextId() {
         return counter.incrementAndGet();
     }
 
+    // Ключ для поиска дубликатов, согласованный с equals()
+    record Key(String title, String author, int year) {
+    }
+
+    Key normalizedKey() {
+        return new Key(this.titleKey, this.author.folded(), this.year);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Book book)) return false;
-        return year == book.year &&
-                title.equalsIgnoreCase(book.title) &&
-                author.equalsIgnoreCase(book.author);
+        return this.year == book.year &&
+                this.titleKey.equals(book.titleKey) &&
+                this.author.folded().equals(book.author.folded());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(title.toLowerCase(), author.toLowerCase(), year);
+        return Objects.hash(this.titleKey, this.author.folded(), this.year);
     }
 
     @Override
     public String toString() {
+        long copies = this.copies.get();
         return String.format("ID: %d, Название: %s, Автор: %s, Год: %d, Доступно: %d/%d",
                 this.id,
                 this.title,
-                this.author,
+                this.author.value(),
                 this.year,
-                this.availableCopies,
-                this.totalCopies);
+                availableOf(copies),
+                totalOf(copies));
     }
 
     public String toFileString() {
+        long copies = this.copies.get();
         return String.format("%d;%s;%s;%d;%d;%d",
                 this.id,
                 this.title,
-                this.author,
+                this.author.value(),
                 this.year,
-                this.totalCopies,
-                this.availableCopies);
+                totalOf(copies),
+                availableOf(copies));
     }
 
     public static Book fromFileString(String line) {
+        return fromFileString(line, null);
+    }
+
+    // authors - словарь авторов библиотеки или null
+    static Book fromFileString(String line, StringDictionary authors) {
         String[] parts = line.split(";");
         if (parts.length != 6) {
             throw new IllegalArgumentException("Некорректная запись книги: " + line);
@@ -160,6 +259,9 @@ public class Book {
         int totalCopies = Integer.parseInt(parts[4]);
         int availableCopies = Integer.parseInt(parts[5]);
 
-        return new Book(id, title, author, year, totalCopies, availableCopies);
+        if (authors == null || author.isBlank()) {
+            return new Book(id, title, author, year, totalCopies, availableCopies);
+        }
+        return new Book(id, title, authors.intern(author), year, totalCopies, availableCopies);
     }
 }
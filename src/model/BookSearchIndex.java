@@ -0,0 +1,234 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Поисковый индекс книг по названию, автору и году.
+// Слова хранятся в упорядоченном словаре для поиска по префиксу, триграммы - для поиска по подстроке.
+// Списки книг слов и триграмм - отсортированные массивы int, около 4 байт на пару (триграмма, книга).
+class BookSearchIndex {
+    private static final int GRAM_LENGTH = 3;
+
+    private final ConcurrentSkipListMap<String, Postings> words = new ConcurrentSkipListMap<>();
+    private final Map<String, Postings> grams = new ConcurrentHashMap<>();
+    private final IntObjectMap<Entry> entries = new IntObjectMap<>();
+    private final StringDictionary years = new StringDictionary();
+
+    // Поля книги в нижнем регистре. Название и автор - общие строки книги (Book.getTitleKey(),
+    // Book.getAuthorKey()), год берётся из общего словаря.
+    private record Entry(int id, String title, String author, String year) {
+    }
+
+    private record Match(Entry entry, int score) {
+    }
+
+    // Лучшие совпадения первыми: больший вес, затем название, затем id
+    private static final Comparator<Match> BEST_FIRST = Comparator.comparingInt(Match::score).reversed()
+            .thenComparing(m -> m.entry().title())
+            .thenComparingInt(m -> m.entry().id());
+
+    void add(Book book) {
+        Entry entry = new Entry(book.getId(),
+                book.getTitleKey(),
+                book.getAuthorKey(),
+                this.years.intern(String.valueOf(book.getYear())).value());
+        if (this.entries.putIfAbsent(entry.id(), entry) != null) return;
+        for (String field : List.of(entry.title(), entry.author(), entry.year())) {
+            for (String word : tokenize(field)) {
+                this.words.computeIfAbsent(word, w -> new Postings()).add(entry.id());
+            }
+            for (int i = 0; i + GRAM_LENGTH <= field.length(); i++) {
+                this.grams.computeIfAbsent(field.substring(i, i + GRAM_LENGTH), g -> new Postings()).add(entry.id());
+            }
+        }
+    }
+
+    void clear() {
+        this.words.clear();
+        this.grams.clear();
+        this.entries.clear();
+        this.years.clear();
+    }
+
+    // Идентификаторы не больше limit лучших книг, лучшие совпадения первыми.
+    // Запрос от трёх символов ищется как подстрока, более короткий - как начало слова.
+    // Лучшие отбираются кучей размера limit, все кандидаты целиком не сортируются.
+    List<Integer> search(String query, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Количество результатов должно быть положительным.");
+        }
+        String normalized = query.strip().toLowerCase();
+        PriorityQueue<Match> best = new PriorityQueue<>(BEST_FIRST.reversed());
+        if (normalized.isEmpty()) {
+            this.entries.forEach(entry -> offer(best, new Match(entry, 0), limit));
+        } else {
+            IdList candidates = normalized.length() < GRAM_LENGTH
+                    ? this.byWordPrefix(normalized)
+                    : this.byGrams(normalized);
+            for (int i = 0; i < candidates.size(); i++) {
+                Entry entry = this.entries.get(candidates.ids()[i]);
+                if (entry == null) continue;
+                int score = score(entry, normalized);
+                if (score > 0) {
+                    offer(best, new Match(entry, score), limit);
+                }
+            }
+        }
+        List<Match> matches = new ArrayList<>(best);
+        matches.sort(BEST_FIRST);
+        return matches.stream()
+                .map(m -> m.entry().id())
+                .toList();
+    }
+
+    // В куче лежит худшее из лучших, новое совпадение вытесняет его, если оно лучше
+    private static void offer(PriorityQueue<Match> best, Match match, int limit) {
+        if (best.size() < limit) {
+            best.add(match);
+        } else if (BEST_FIRST.compare(match, best.peek()) < 0) {
+            best.poll();
+            best.add(match);
+        }
+    }
+
+    // Объединение списков всех слов с этим началом
+    private IdList byWordPrefix(String prefix) {
+        IdList result = IdList.EMPTY;
+        for (Postings postings : this.words.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+            result = union(result, postings.ids());
+        }
+        return result;
+    }
+
+    // Пересечение списков триграмм, начиная с самого короткого
+    private IdList byGrams(String query) {
+        List<IdList> lists = new ArrayList<>();
+        for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+            Postings postings = this.grams.get(query.substring(i, i + GRAM_LENGTH));
+            if (postings == null) return IdList.EMPTY;
+            lists.add(postings.ids());
+        }
+        lists.sort(Comparator.comparingInt(IdList::size));
+        IdList result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.size() > 0; i++) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    private static IdList union(IdList a, IdList b) {
+        int[] result = new int[a.size() + b.size()];
+        int i = 0, j = 0, count = 0;
+        while (i < a.size() || j < b.size()) {
+            if (j == b.size() || (i < a.size() && a.ids()[i] < b.ids()[j])) {
+                result[count++] = a.ids()[i++];
+            } else if (i == a.size() || b.ids()[j] < a.ids()[i]) {
+                result[count++] = b.ids()[j++];
+            } else {
+                result[count++] = a.ids()[i++];
+                j++;
+            }
+        }
+        return new IdList(result, count);
+    }
+
+    private static IdList intersect(IdList a, IdList b) {
+        int[] result = new int[Math.min(a.size(), b.size())];
+        int i = 0, j = 0, count = 0;
+        while (i < a.size() && j < b.size()) {
+            if (a.ids()[i] < b.ids()[j]) {
+                i++;
+            } else if (b.ids()[j] < a.ids()[i]) {
+                j++;
+            } else {
+                result[count++] = a.ids()[i++];
+                j++;
+            }
+        }
+        return new IdList(result, count);
+    }
+
+    // Вес совпадения: название важнее автора, точное совпадение важнее начала слова и подстроки
+    private static int score(Entry entry, String query) {
+        return fieldScore(entry.title(), query, 4) + fieldScore(entry.author(), query, 3) + fieldScore(entry.year(), query, 1);
+    }
+
+    private static int fieldScore(String field, String query, int weight) {
+        if (field.equals(query)) return 10 * weight;
+        if (field.startsWith(query)) return 6 * weight;
+        int score = 0;
+        for (int i = field.indexOf(query); i >= 0; i = field.indexOf(query, i + 1)) {
+            int end = i + query.length();
+            boolean wordStart = i == 0 || !Character.isLetterOrDigit(field.charAt(i - 1));
+            boolean wordEnd = end == field.length() || !Character.isLetterOrDigit(field.charAt(end));
+            if (wordStart && wordEnd) return 5 * weight;
+            if (wordStart) {
+                score = 4 * weight;
+            } else if (query.length() >= GRAM_LENGTH) {
+                score = Math.max(score, 2 * weight);
+            }
+        }
+        return score;
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<>();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    // Первые size элементов массива ids - отсортированные id без повторов. Массив не меняется
+    // в этих пределах, пока его держит читатель.
+    private record IdList(int[] ids, int size) {
+        static final IdList EMPTY = new IdList(new int[0], 0);
+    }
+
+    // Список id книг слова или триграммы. Id дописываются в конец в любом порядке (параллельная
+    // загрузка добавляет книги вперемешку), список сортируется при первом чтении после такого
+    // добавления. Сортировка пишет в новый массив, а добавление - только за пределы size,
+    // поэтому выданные читателям списки не меняются.
+    private static final class Postings {
+        private int[] ids = new int[2];
+        private int size;
+        private boolean sorted = true;
+
+        synchronized void add(int id) {
+            // Слово может встретиться в названии книги несколько раз
+            if (this.size > 0 && this.ids[this.size - 1] == id) return;
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size + (this.size >> 1) + 1);
+            }
+            if (this.size > 0 && this.ids[this.size - 1] > id) {
+                this.sorted = false;
+            }
+            this.ids[this.size++] = id;
+        }
+
+        synchronized IdList ids() {
+            if (!this.sorted) {
+                int[] ids = Arrays.copyOf(this.ids, this.ids.length);
+                Arrays.sort(ids, 0, this.size);
+                int count = 0;
+                for (int i = 0; i < this.size; i++) {
+                    if (count == 0 || ids[count - 1] != ids[i]) {
+                        ids[count++] = ids[i];
+                    }
+                }
+                this.ids = ids;
+                this.size = count;
+                this.sorted = true;
+            }
+            return new IdList(this.ids, this.size);
+        }
+    }
+}
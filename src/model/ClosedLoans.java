@@ -0,0 +1,37 @@
+package model;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+// Закрытые выдачи: в памяти (LoanHistory) или в файле loans.map (MappedLoanStore).
+// Возвращаемые объекты Loan - копии, собранные при чтении.
+interface ClosedLoans {
+    // Добавление закрытой выдачи, повторное добавление ничего не меняет
+    void add(Loan loan);
+
+    int size();
+
+    // Наибольший id среди хранимых выдач, Integer.MIN_VALUE, если их нет
+    int maxId();
+
+    boolean contains(int id);
+
+    // Закрытая выдача по id или null
+    Loan get(int id);
+
+    List<Loan> byBook(int bookId);
+
+    List<Loan> byUser(int userId);
+
+    // Id закрытых выдач книги и читателя без сборки объектов
+    int[] idsByBook(int bookId);
+
+    int[] idsByUser(int userId);
+
+    Collection<Loan> values();
+
+    // Обход id закрытых выдач без сборки объектов, в произвольном порядке.
+    // action вызывается под блокировкой чтения хранилища и не должен обращаться к нему.
+    void forEachId(IntConsumer action);
+}
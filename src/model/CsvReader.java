@@ -0,0 +1,108 @@
+package model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+// Потоковое чтение CSV (RFC 4180): поля через запятую, поле в двойных кавычках может
+// содержать запятые, переводы строк и удвоенные кавычки. Записи читаются по одной,
+// файл целиком в память не загружается.
+final class CsvReader {
+    private final Reader reader;
+    private int next = -2;
+    private int line = 1;
+    private int recordLine;
+
+    CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    // Следующая запись или null в конце файла. Пустые строки пропускаются.
+    List<String> next() throws IOException {
+        while (true) {
+            if (this.peek() < 0) return null;
+            this.recordLine = this.line;
+            List<String> fields = this.readRecord();
+            if (fields.size() > 1 || !fields.get(0).isEmpty()) {
+                return fields;
+            }
+        }
+    }
+
+    // Номер строки, с которой началась последняя прочитанная запись
+    int lineNumber() {
+        return this.recordLine;
+    }
+
+    private List<String> readRecord() throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            int c = this.read();
+            if (quoted) {
+                if (c < 0) {
+                    throw new IllegalArgumentException("Незакрытая кавычка в записи со строки " + this.recordLine);
+                }
+                if (c == '"') {
+                    if (this.peek() == '"') {
+                        this.read();
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.isEmpty()) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c < 0 || c == '\n' || c == '\r') {
+                if (c == '\r' && this.peek() == '\n') {
+                    this.read();
+                }
+                fields.add(field.toString());
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+        }
+    }
+
+    private int peek() throws IOException {
+        if (this.next == -2) {
+            this.next = this.reader.read();
+        }
+        return this.next;
+    }
+
+    private int read() throws IOException {
+        int c = this.peek();
+        this.next = -2;
+        if (c == '\n' || (c == '\r' && this.peek() != '\n')) {
+            this.line++;
+        }
+        return c;
+    }
+
+    // Строка CSV: поля с запятыми, кавычками и переводами строк заключаются в кавычки
+    static String format(String... fields) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                result.append(',');
+            }
+            String field = fields[i];
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0
+                    || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                result.append('"').append(field.replace("\"", "\"\"")).append('"');
+            } else {
+                result.append(field);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package model;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+// Текущий день по часам java.time.Clock. День и границы его в миллисекундах кешируются,
+// поэтому обычный вызов - одно чтение часов и сравнение, а дата и часовой пояс
+// пересчитываются только после смены дня (или если часы перевели назад).
+final class DayClock {
+    private static final DayClock SYSTEM = new DayClock(Clock.systemDefaultZone());
+
+    private final Clock clock;
+    private volatile Day day;
+
+    // День как номер от 1970-01-01 и его начало и конец в миллисекундах часов
+    private record Day(int epochDay, LocalDate date, long startMillis, long endMillis) {
+    }
+
+    DayClock(Clock clock) {
+        this.clock = clock;
+        this.day = this.compute(clock.millis());
+    }
+
+    static DayClock system() {
+        return SYSTEM;
+    }
+
+    int today() {
+        return this.current().epochDay;
+    }
+
+    LocalDate todayDate() {
+        return this.current().date;
+    }
+
+    private Day current() {
+        long now = this.clock.millis();
+        Day day = this.day;
+        if (now < day.startMillis || now >= day.endMillis) {
+            day = this.compute(now);
+            this.day = day;
+        }
+        return day;
+    }
+
+    private Day compute(long millis) {
+        ZoneId zone = this.clock.getZone();
+        LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(millis), zone);
+        long start = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        long end = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        return new Day(Math.toIntExact(date.toEpochDay()), date, start, end);
+    }
+}
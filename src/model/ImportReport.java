@@ -0,0 +1,24 @@
+package model;
+
+import java.util.List;
+
+// Итог массового импорта: новые записи, строки, объединённые с уже имеющимися книгами,
+// и отклонённые строки. В errors попадают только первые MAX_ERRORS сообщений вида "строка N: причина".
+public record ImportReport(int accepted, int merged, int rejected, List<String> errors, long millis) {
+    public static final int MAX_ERRORS = 100;
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(String.format(
+                "принято: %d, объединено: %d, отклонено: %d за %d мс",
+                this.accepted, this.merged, this.rejected, this.millis));
+        for (String error : this.errors) {
+            result.append(System.lineSeparator()).append(error);
+        }
+        if (this.rejected > this.errors.size()) {
+            result.append(System.lineSeparator())
+                    .append("... и ещё ").append(this.rejected - this.errors.size()).append(" ошибок");
+        }
+        return result.toString();
+    }
+}
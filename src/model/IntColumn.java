@@ -0,0 +1,37 @@
+package model;
+
+import java.util.Arrays;
+
+// Массив int, растущий блоками: уже записанные значения при росте не копируются.
+// Незаполненные ячейки равны NONE. Подходит для индексов по id, которые выдаются подряд.
+final class IntColumn {
+    static final int NONE = -1;
+
+    private static final int BLOCK_BITS = 14;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private int[][] blocks = new int[0][];
+
+    int get(int index) {
+        int block = index >>> BLOCK_BITS;
+        if (block >= this.blocks.length || this.blocks[block] == null) return NONE;
+        return this.blocks[block][index & BLOCK_MASK];
+    }
+
+    void set(int index, int value) {
+        int block = index >>> BLOCK_BITS;
+        if (block >= this.blocks.length) {
+            this.blocks = Arrays.copyOf(this.blocks, Math.max(block + 1, this.blocks.length * 2));
+        }
+        if (this.blocks[block] == null) {
+            this.blocks[block] = new int[BLOCK_SIZE];
+            Arrays.fill(this.blocks[block], NONE);
+        }
+        this.blocks[block][index & BLOCK_MASK] = value;
+    }
+
+    void clear() {
+        this.blocks = new int[0][];
+    }
+}
@@ -0,0 +1,444 @@
+package model;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+// Потокобезопасный словарь с ключами int без упаковки ключей и объектов-записей:
+// ключи и значения лежат в двух массивах с открытой адресацией и линейным пробированием.
+// Словарь разбит на сегменты со своей блокировкой. Чтение идёт без блокировки (оптимистичное
+// чтение StampedLock) и повторяется под блокировкой, только если сегмент в это время менялся.
+// Значения null не допускаются. Обход слабо согласован, как у ConcurrentHashMap:
+// каждый сегмент копируется под блокировкой в момент, когда до него доходит обход.
+class IntObjectMap<V> {
+    private static final int DEFAULT_SEGMENTS = 32;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+    // Наибольший добавленный ключ, верхняя граница для обхода по диапазону ключей.
+    // При удалении не уменьшается.
+    private final AtomicInteger maxKey = new AtomicInteger(Integer.MIN_VALUE);
+
+    IntObjectMap() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    // segments - степень двойки
+    @SuppressWarnings("unchecked")
+    IntObjectMap(int segments) {
+        if (segments <= 0 || Integer.bitCount(segments) != 1) {
+            throw new IllegalArgumentException("Число сегментов должно быть степенью двойки.");
+        }
+        this.segments = (Segment<V>[]) new Segment<?>[segments];
+        for (int i = 0; i < segments; i++) {
+            this.segments[i] = new Segment<>();
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segments);
+    }
+
+    // Фибоначчиево хеширование: старшие биты выбирают сегмент, младшие - ячейку в нём
+    private static int hash(int key) {
+        return key * 0x9E3779B9;
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        return this.segments.length == 1 ? this.segments[0] : this.segments[hash >>> this.segmentShift];
+    }
+
+    V get(int key) {
+        int hash = hash(key);
+        return this.segmentFor(hash).get(key, hash);
+    }
+
+    boolean containsKey(int key) {
+        return this.get(key) != null;
+    }
+
+    V put(int key, V value) {
+        int hash = hash(key);
+        V previous = this.segmentFor(hash).put(key, hash, value, false);
+        this.updateMaxKey(key);
+        return previous;
+    }
+
+    V putIfAbsent(int key, V value) {
+        int hash = hash(key);
+        V previous = this.segmentFor(hash).put(key, hash, value, true);
+        this.updateMaxKey(key);
+        return previous;
+    }
+
+    V computeIfAbsent(int key, IntFunction<? extends V> factory) {
+        int hash = hash(key);
+        Segment<V> segment = this.segmentFor(hash);
+        V value = segment.get(key, hash);
+        if (value != null) return value;
+        value = segment.computeIfAbsent(key, hash, factory);
+        this.updateMaxKey(key);
+        return value;
+    }
+
+    // Общий счётчик меняется только при росте максимума, обычно при добавлении новой записи
+    private void updateMaxKey(int key) {
+        if (key > this.maxKey.get()) {
+            this.maxKey.accumulateAndGet(key, Math::max);
+        }
+    }
+
+    int maxKey() {
+        return this.maxKey.get();
+    }
+
+    V remove(int key) {
+        int hash = hash(key);
+        return this.segmentFor(hash).remove(key, hash);
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<V> segment : this.segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    boolean isEmpty() {
+        for (Segment<V> segment : this.segments) {
+            if (segment.size > 0) return false;
+        }
+        return true;
+    }
+
+    void clear() {
+        for (Segment<V> segment : this.segments) {
+            segment.clear();
+        }
+        this.maxKey.set(Integer.MIN_VALUE);
+    }
+
+    void forEach(Consumer<? super V> action) {
+        for (V value : this.values()) {
+            action.accept(value);
+        }
+    }
+
+    void forEachKey(IntConsumer action) {
+        for (Segment<V> segment : this.segments) {
+            for (int key : segment.snapshotKeys()) {
+                action.accept(key);
+            }
+        }
+    }
+
+    // Представление значений только для чтения
+    Collection<V> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SegmentIterator<>(IntObjectMap.this.segments, false);
+            }
+
+            @Override
+            public int size() {
+                return IntObjectMap.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return IntObjectMap.this.isEmpty();
+            }
+        };
+    }
+
+    // Представление только для чтения в виде Map для открытого API библиотеки.
+    // Ключи упаковываются только при обходе записей.
+    Map<Integer, V> asMap() {
+        return new AbstractMap<>() {
+            @Override
+            public V get(Object key) {
+                return key instanceof Integer id ? IntObjectMap.this.get(id) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return this.get(key) != null;
+            }
+
+            @Override
+            public int size() {
+                return IntObjectMap.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return IntObjectMap.this.isEmpty();
+            }
+
+            @Override
+            public Collection<V> values() {
+                return IntObjectMap.this.values();
+            }
+
+            @Override
+            public Set<Entry<Integer, V>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<Integer, V>> iterator() {
+                        return new SegmentIterator<>(IntObjectMap.this.segments, true);
+                    }
+
+                    @Override
+                    public int size() {
+                        return IntObjectMap.this.size();
+                    }
+                };
+            }
+        };
+    }
+
+    // Массивы ключей и значений меняются вместе, чтобы чтение без блокировки видело согласованную пару
+    private record Table(int[] keys, Object[] values) {
+        Table(int capacity) {
+            this(new int[capacity], new Object[capacity]);
+        }
+    }
+
+    private static final class Segment<V> {
+        private final StampedLock lock = new StampedLock();
+        private Table table = new Table(INITIAL_CAPACITY);
+        private volatile int size;
+
+        V get(int key, int hash) {
+            long stamp = this.lock.tryOptimisticRead();
+            if (stamp != 0) {
+                V value = this.find(key, hash);
+                if (this.lock.validate(stamp)) {
+                    return value;
+                }
+            }
+            stamp = this.lock.readLock();
+            try {
+                return this.find(key, hash);
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+
+        // Пробирование ограничено размером таблицы: при чтении без блокировки таблица может быть
+        // в промежуточном состоянии, такой результат всё равно отбросит validate()
+        @SuppressWarnings("unchecked")
+        private V find(int key, int hash) {
+            Table table = this.table;
+            int mask = table.keys.length - 1;
+            for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                Object value = table.values[i];
+                if (value == null) return null;
+                if (table.keys[i] == key) return (V) value;
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        V put(int key, int hash, V value, boolean onlyIfAbsent) {
+            if (value == null) {
+                throw new NullPointerException();
+            }
+            long stamp = this.lock.writeLock();
+            try {
+                Table table = this.table;
+                int mask = table.keys.length - 1;
+                int i = hash & mask;
+                while (table.values[i] != null) {
+                    if (table.keys[i] == key) {
+                        V previous = (V) table.values[i];
+                        if (!onlyIfAbsent) {
+                            table.values[i] = value;
+                        }
+                        return previous;
+                    }
+                    i = (i + 1) & mask;
+                }
+                this.insert(key, hash, value);
+                return null;
+            } finally {
+                this.lock.unlockWrite(stamp);
+            }
+        }
+
+        V computeIfAbsent(int key, int hash, IntFunction<? extends V> factory) {
+            long stamp = this.lock.writeLock();
+            try {
+                V value = this.find(key, hash);
+                if (value == null) {
+                    value = factory.apply(key);
+                    this.insert(key, hash, value);
+                }
+                return value;
+            } finally {
+                this.lock.unlockWrite(stamp);
+            }
+        }
+
+        // Вставка отсутствующего ключа под блокировкой записи, заполненность не больше 3/4
+        private void insert(int key, int hash, Object value) {
+            if ((this.size + 1) * 4L > this.table.keys.length * 3L) {
+                this.resize();
+            }
+            Table table = this.table;
+            int mask = table.keys.length - 1;
+            int i = hash & mask;
+            while (table.values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table.keys[i] = key;
+            table.values[i] = value;
+            this.size++;
+        }
+
+        private void resize() {
+            Table old = this.table;
+            Table table = new Table(old.keys.length * 2);
+            int mask = table.keys.length - 1;
+            for (int j = 0; j < old.keys.length; j++) {
+                if (old.values[j] == null) continue;
+                int i = hash(old.keys[j]) & mask;
+                while (table.values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table.keys[i] = old.keys[j];
+                table.values[i] = old.values[j];
+            }
+            this.table = table;
+        }
+
+        // Удаление со сдвигом следующих записей цепочки назад, без надгробий
+        @SuppressWarnings("unchecked")
+        V remove(int key, int hash) {
+            long stamp = this.lock.writeLock();
+            try {
+                Table table = this.table;
+                int mask = table.keys.length - 1;
+                int i = hash & mask;
+                while (table.values[i] != null && table.keys[i] != key) {
+                    i = (i + 1) & mask;
+                }
+                V removed = (V) table.values[i];
+                if (removed == null) return null;
+                table.values[i] = null;
+                for (int j = (i + 1) & mask; table.values[j] != null; j = (j + 1) & mask) {
+                    int home = hash(table.keys[j]) & mask;
+                    // Запись j остаётся на месте, если её начальная ячейка циклически лежит в (i, j]
+                    boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                    if (!stays) {
+                        table.keys[i] = table.keys[j];
+                        table.values[i] = table.values[j];
+                        table.values[j] = null;
+                        i = j;
+                    }
+                }
+                this.size--;
+                return removed;
+            } finally {
+                this.lock.unlockWrite(stamp);
+            }
+        }
+
+        void clear() {
+            long stamp = this.lock.writeLock();
+            try {
+                this.table = new Table(INITIAL_CAPACITY);
+                this.size = 0;
+            } finally {
+                this.lock.unlockWrite(stamp);
+            }
+        }
+
+        int[] snapshotKeys() {
+            long stamp = this.lock.readLock();
+            try {
+                Table table = this.table;
+                int[] keys = new int[this.size];
+                int count = 0;
+                for (int i = 0; i < table.keys.length; i++) {
+                    if (table.values[i] != null) {
+                        keys[count++] = table.keys[i];
+                    }
+                }
+                return keys;
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+
+        // Пары ключ-значение подряд: значения в нечётных ячейках, ключи упакованы в чётных,
+        // только если они нужны обходу записей
+        Object[] snapshot(boolean withKeys) {
+            long stamp = this.lock.readLock();
+            try {
+                Table table = this.table;
+                Object[] result = new Object[withKeys ? this.size * 2 : this.size];
+                int count = 0;
+                for (int i = 0; i < table.keys.length; i++) {
+                    if (table.values[i] != null) {
+                        if (withKeys) {
+                            result[count++] = table.keys[i];
+                        }
+                        result[count++] = table.values[i];
+                    }
+                }
+                return result;
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    // Обход по сегментам: следующий сегмент копируется, когда закончился предыдущий
+    private static final class SegmentIterator<V, T> implements Iterator<T> {
+        private final Segment<V>[] segments;
+        private final boolean entries;
+        private int segment;
+        private Object[] current = new Object[0];
+        private int position;
+
+        SegmentIterator(Segment<V>[] segments, boolean entries) {
+            this.segments = segments;
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.position >= this.current.length) {
+                if (this.segment >= this.segments.length) return false;
+                this.current = this.segments[this.segment++].snapshot(this.entries);
+                this.position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (this.entries) {
+                Integer key = (Integer) this.current[this.position++];
+                V value = (V) this.current[this.position++];
+                return (T) new AbstractMap.SimpleImmutableEntry<>(key, value);
+            }
+            return (T) this.current[this.position++];
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Потокобезопасная гистограмма задержек в наносекундах с логарифмическими корзинами:
+// на каждую степень двойки 16 корзин, погрешность значения не больше 1/16.
+// Запись - одно атомарное увеличение счётчика корзины, без блокировок и выделения памяти.
+// Используется метриками библиотеки и нагрузочным тестом (benchmarks.LoadDriver).
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR = SUB_COUNT * 2;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        this.counts.incrementAndGet(bucket(value));
+        this.total.add(value);
+        this.max.accumulate(value);
+    }
+
+    // Добавление значений другой гистограммы, например при сложении гистограмм потоков
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.addAndGet(i, other.counts.get(i));
+        }
+        this.total.add(other.total.sum());
+        this.max.accumulate(other.max.get());
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    public long mean() {
+        long count = this.count();
+        return count > 0 ? this.total.sum() / count : 0;
+    }
+
+    // Верхняя граница корзины, в которую попадает заданная доля значений (0..1).
+    // Во время записи результат приблизителен: корзины читаются не одновременно.
+    public long percentile(double fraction) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) return 0;
+        long target = Math.max((long) Math.ceil(fraction * count), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(upperBound(i), this.max());
+            }
+        }
+        return this.max();
+    }
+
+    public long max() {
+        return this.max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.total.reset();
+        this.max.reset();
+    }
+
+    private static int bucket(long value) {
+        if (value < LINEAR) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS;
+        return LINEAR + (shift - 1) * SUB_COUNT + (int) ((value >> shift) & (SUB_COUNT - 1));
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < LINEAR) return bucket;
+        int shift = (bucket - LINEAR) / SUB_COUNT + 1;
+        long sub = (bucket - LINEAR) % SUB_COUNT;
+        return ((SUB_COUNT + sub + 1) << shift) - 1;
+    }
+}
@@ -7,253 +7,1472 @@ import exceptions.UserAlreadyExistsException;
 import exceptions.UserBookQuotaExceededException;
 import exceptions.UserNotFoundException;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
 import java.time.LocalDate;
-import java.util.HashMap;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
 
+// Все операции библиотеки потокобезопасны: выдача и возврат по разным читателям и книгам
+// выполняются параллельно, операции одного читателя упорядочены его блокировкой.
 public class Library {
-    private final Map<Integer, Book> books;
-    private final Map<Integer, User> users;
-    private final Map<Integer, Loan> loans;
+    // Словари по id без упаковки ключей (IntObjectMap)
+    private final IntObjectMap<Book> books;
+    private final IntObjectMap<User> users;
+    // Активные выдачи. Закрытые выдачи переносятся в столбцы loanHistory,
+    // а при включённом loans.map остаются только в файле.
+    private final IntObjectMap<Loan> loans;
+    private final LoanHistory loanHistory;
+    private volatile ClosedLoans closedLoans;
 
-    private final String booksFile = "src/storage/books";
-    private final String usersFile = "src/storage/users";
-    private final String loansFile = "src/storage/loans";
+    // Индексы для поиска дубликатов по нормализованному ключу
+    private final Map<Book.Key, Book> bookKeys;
+    private final Map<String, User> userKeys;
+
+    // Полнотекстовый индекс для поиска книг
+    private final BookSearchIndex bookSearchIndex;
+    // Авторы повторяются у многих книг: книги, созданные библиотекой, делят строки авторов
+    private final StringDictionary authors = new StringDictionary();
+    // Индекс для поиска читателей по e-mail и началу имени
+    private final UserSearchIndex userSearchIndex;
+
+    // Индексы активных выдач по читателю и по книге
+    private final IntObjectMap<UserLoans> loansByUser;
+    private final IntObjectMap<List<Loan>> loansByBook;
+    // Активные выдачи по дню окончания срока. Пустые дни не удаляются: их не больше одного
+    // на календарный день, зато добавление и удаление не гоняются за один и тот же день.
+    private final ConcurrentSkipListMap<Integer, IntObjectMap<Loan>> activeLoansByDueDay;
+
+    private final Path storageDir;
+    private final String booksFile;
+    private final String usersFile;
+    private final String loansFile;
+    private final String journalFile;
+    private final String mappedLoansFile;
+
+    private StorageFormat storageFormat = StorageFormat.TEXT;
+    private volatile DayClock clock = DayClock.system();
+    private LibraryJournal journal;
+    private int journalCompactThreshold = 1000;
+    private boolean mappedLoans;
+    private MappedLoanStore loanStore;
+    private volatile WriteBehindWriter writer;
+    private volatile List<StoreLoadStats> loadStats = List.of();
+
+    // Сегменты с записями, изменёнными после последней контрольной точки (режим снимков без журнала).
+    // Форматы TEXT и BINARY перезаписывают файл целиком, если изменён хотя бы один сегмент.
+    private final Set<Integer> dirtyBookSegments = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> dirtyUserSegments = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> dirtyLoanSegments = ConcurrentHashMap.newKeySet();
+
+    // Блокировки читателей по полосам: проверка лимита и выдача одного читателя не пересекаются
+    private final Object[] userLocks = new Object[USER_LOCK_STRIPES];
+    // Изменения берут блокировку на чтение, контрольная точка - на запись на время снятия
+    // состояния в память, поэтому книги, читатели и выдачи в снимке согласованы между собой
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    // Контрольные точки выполняются по одной. Берётся до checkpointLock.
+    private final Object storageLock = new Object();
+
+    // Счётчики и задержки операций
+    private final LibraryMetrics metrics = new LibraryMetrics();
+    private final OperationMetrics addBookMetrics = this.metrics.operation("addBook");
+    private final OperationMetrics addUserMetrics = this.metrics.operation("addUser");
+    private final OperationMetrics borrowMetrics = this.metrics.operation("borrowBook");
+    private final OperationMetrics returnMetrics = this.metrics.operation("returnBook");
+    private final OperationMetrics searchBooksMetrics = this.metrics.operation("searchBooks");
+    private final OperationMetrics searchUsersMetrics = this.metrics.operation("searchUsers");
+    private final OperationMetrics expiredLoansMetrics = this.metrics.operation("getExpiredLoans");
+    private final OperationMetrics importBooksMetrics = this.metrics.operation("importBooks");
+    private final OperationMetrics importUsersMetrics = this.metrics.operation("importUsers");
+    private final OperationMetrics checkpointMetrics = this.metrics.operation("save");
+    private final OperationMetrics initMetrics = this.metrics.operation("initLibrary");
 
     private static final int MAX_BOOKS_PER_USER = 3;
+    private static final int USER_LOCK_STRIPES = 64;
+    // Выдач с одним днём окончания срока немного, такому словарю хватает пары сегментов
+    private static final int DUE_DAY_SEGMENTS = 2;
+    private static final String BINARY_SUFFIX = ".bin";
+    private static final String SEGMENTS_SUFFIX = ".seg";
+    // Записей в сегменте: id выдаются подряд, сегмент N хранит id от N * SEGMENT_SIZE
+    private static final int SEGMENT_SIZE = 1024;
+    // Размер страницы, которыми потоки stream*() читают хранилище
+    private static final int STREAM_PAGE_SIZE = 1024;
+    // Пропусков id сверх limit, после которых страница выбирается из занятых ключей
+    private static final int PAGE_GAPS = 64;
+    // Строк импорта, проверяемых вместе и применяемых под одной блокировкой
+    private static final int IMPORT_BATCH_SIZE = 10_000;
+    private static final String[] BOOK_CSV_HEADER = {"title", "author", "year", "copies"};
+    private static final String[] USER_CSV_HEADER = {"name", "email"};
 
     public Library() {
-        this.books = new HashMap<Integer, Book>();
-        this.users = new HashMap<Integer, User>();
-        this.loans = new HashMap<Integer, Loan>();
+        this("src/storage");
     }
 
+    public Library(String storageDir) {
+        this.books = new IntObjectMap<Book>();
+        this.users = new IntObjectMap<User>();
+        this.loans = new IntObjectMap<Loan>();
+        this.loanHistory = new LoanHistory(this);
+        this.closedLoans = this.loanHistory;
+        this.bookKeys = new ConcurrentHashMap<Book.Key, Book>();
+        this.userKeys = new ConcurrentHashMap<String, User>();
+        this.bookSearchIndex = new BookSearchIndex();
+        this.userSearchIndex = new UserSearchIndex();
+        this.loansByUser = new IntObjectMap<UserLoans>();
+        this.loansByBook = new IntObjectMap<List<Loan>>();
+        this.activeLoansByDueDay = new ConcurrentSkipListMap<Integer, IntObjectMap<Loan>>();
+        for (int i = 0; i < this.userLocks.length; i++) {
+            this.userLocks[i] = new Object();
+        }
+        this.storageDir = Path.of(storageDir);
+        this.booksFile = storageDir + "/books";
+        this.usersFile = storageDir + "/users";
+        this.loansFile = storageDir + "/loans";
+        this.journalFile = storageDir + "/journal";
+        this.mappedLoansFile = storageDir + "/loans.map";
+    }
+
+    // Книги, читатели и выдачи загружаются одновременно, затем проигрывается журнал.
+    // Время загрузки каждого хранилища доступно через getLoadStats().
     public void initLibrary() {
+        long start = System.nanoTime();
         try {
-            this.loadBooks();
-            this.loadUsers();
-            this.loadLoans();
+            this.loadAll();
+            this.initMetrics.success(start);
+        } catch (RuntimeException e) {
+            this.initMetrics.failure(start, e);
+            throw e;
+        }
+    }
+
+    private void loadAll() {
+        try {
+            StorageCheckpoint.recover(this.storageDir);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        List<StoreLoadStats> stats = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> booksTask = CompletableFuture.runAsync(() -> this.timedLoad("books", this::loadBooks, stats));
+        CompletableFuture<Void> usersTask = CompletableFuture.runAsync(() -> this.timedLoad("users", this::loadUsers, stats));
+        CompletableFuture<Void> loansTask = CompletableFuture.runAsync(() ->
+                this.timedLoad("loans", this.mappedLoans ? this::loadMappedLoans : this::loadLoans, stats));
+        try {
+            CompletableFuture.allOf(booksTask, usersTask, loansTask).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+
+        try {
+            if (this.mappedLoans) {
+                // Файл книг при выдаче и возврате не обновлялся, доступные экземпляры берутся из выдач
+                this.books.forEachKey(this::recountAvailableCopies);
+            }
+            if (this.journal != null) {
+                long start = System.nanoTime();
+                Set<Integer> touchedBooks = new HashSet<>();
+                this.journal.replay((type, payload) -> this.applyJournalRecord(type, payload, touchedBooks));
+                for (int bookId : touchedBooks) {
+                    this.recountAvailableCopies(bookId);
+                }
+                this.metrics.operation("load.journal").success(start);
+                stats.add(new StoreLoadStats("journal", this.journal.size(), (System.nanoTime() - start) / 1_000_000));
+            }
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
+        this.loadStats = List.copyOf(stats);
+    }
+
+    // Время загрузки хранилищ при последнем вызове initLibrary()
+    public List<StoreLoadStats> getLoadStats() {
+        return this.loadStats;
     }
 
+    private interface StoreLoader {
+        int load() throws IOException;
+    }
+
+    private void timedLoad(String store, StoreLoader loader, List<StoreLoadStats> stats) {
+        OperationMetrics loadMetrics = this.metrics.operation("load." + store);
+        long start = System.nanoTime();
+        try {
+            int records = loader.load();
+            loadMetrics.success(start);
+            stats.add(new StoreLoadStats(store, records, (System.nanoTime() - start) / 1_000_000));
+        } catch (IOException e) {
+            loadMetrics.failure(start, e);
+            throw new IllegalArgumentException(e);
+        } catch (RuntimeException e) {
+            loadMetrics.failure(start, e);
+            throw e;
+        }
+    }
+
+    // Режим журнала: вместо перезаписи файлов каждое изменение дописывается в журнал.
+    // Включается до вызова initLibrary().
+    public void setJournalEnabled(boolean enabled) {
+        this.journal = enabled ? new LibraryJournal(this.journalFile) : null;
+    }
+
+    public boolean isJournalEnabled() {
+        return this.journal != null;
+    }
+
+    LibraryJournal getJournal() {
+        return this.journal;
+    }
+
+    // Счётчики операций: вызовы, ошибки по типу исключения, задержки
+    public LibraryMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    // Формат файлов хранилища. Задаётся до вызова initLibrary(); смена формата после
+    // загрузки и сохранение снимка переводят хранилище в новый формат.
+    public void setStorageFormat(StorageFormat storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    // Часы для дат выдачи и возврата и проверки просрочки, по умолчанию системные
+    public void setClock(Clock clock) {
+        this.clock = new DayClock(clock);
+    }
+
+    DayClock getDayClock() {
+        return this.clock;
+    }
+
+    public StorageFormat getStorageFormat() {
+        return this.storageFormat;
+    }
+
+    // Хранение выдач в отображаемом в память файле loans.map: выдача записывается на место по своему id,
+    // возврат меняет дату на месте, файл книг при выдаче и возврате не перезаписывается.
+    // Закрытые выдачи остаются в файле и в память при загрузке не читаются.
+    // Включается до вызова initLibrary(); при первом запуске выдачи переносятся из обычного хранилища.
+    public void setMappedLoansEnabled(boolean enabled) {
+        this.mappedLoans = enabled;
+    }
+
+    public boolean isMappedLoansEnabled() {
+        return this.mappedLoans;
+    }
+
+    // Отложенная запись: операции только ставят изменения в очередь, фоновый поток сохраняет их
+    // пачками раз в flushIntervalMillis миллисекунд. 0 - сохранять сразу в потоке операции.
+    // Записанное до вызова flush() гарантированно на диске после его завершения.
+    public void setWriteBehindInterval(long flushIntervalMillis) {
+        if (flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("Интервал записи не может быть отрицательным.");
+        }
+        WriteBehindWriter previous = this.writer;
+        this.writer = flushIntervalMillis > 0
+                ? new WriteBehindWriter(this, flushIntervalMillis)
+                : null;
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    // Барьер сохранности: все изменения, сделанные до вызова, записываются и сбрасываются на диск.
+    // В обоих режимах журнала до этого вызова изменения переживают падение процесса (без отложенной
+    // записи) или ещё в очереди (с ней), но не гарантированно переживают отключение питания.
+    // Ошибки фоновой записи с прошлого вызова выбрасываются здесь.
+    public void flush() {
+        try {
+            WriteBehindWriter writer = this.writer;
+            if (writer != null) {
+                writer.flush();
+            }
+            if (this.journal != null) {
+                this.journal.sync();
+            }
+            if (this.loanStore != null) {
+                this.loanStore.force();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // Сохранение отложенных изменений и закрытие файлов хранилища
+    public void close() {
+        try {
+            WriteBehindWriter writer = this.writer;
+            this.writer = null;
+            if (writer != null) {
+                writer.close();
+            }
+            if (this.journal != null) {
+                this.journal.close();
+            }
+            if (this.loanStore != null) {
+                this.loanStore.close();
+                this.loanStore = null;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // Количество записей журнала, после которого он сжимается в снимок
+    public void setJournalCompactThreshold(int journalCompactThreshold) {
+        if (journalCompactThreshold <= 0) {
+            throw new IllegalArgumentException("Порог сжатия журнала должен быть положительным числом.");
+        }
+        this.journalCompactThreshold = journalCompactThreshold;
+    }
+
+    // Представления словарей только для чтения
     public Map<Integer, Book> getBooks() {
-        return this.books;
+        return this.books.asMap();
     }
 
     public Book getBook(int id) {
         return this.books.get(id);
     }
 
+    // Активные и закрытые выдачи. Закрытые выдачи собираются из истории при каждом обращении.
     public Map<Integer, Loan> getLoans() {
-        return this.loans;
+        return new AbstractMap<>() {
+            @Override
+            public Loan get(Object key) {
+                return key instanceof Integer id ? Library.this.getLoan(id) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof Integer id
+                        && (Library.this.loans.containsKey(id) || Library.this.closedLoans.contains(id));
+            }
+
+            @Override
+            public int size() {
+                return Library.this.loans.size() + Library.this.closedLoans.size();
+            }
+
+            @Override
+            public Collection<Loan> values() {
+                return Library.this.allLoans();
+            }
+
+            @Override
+            public Set<Entry<Integer, Loan>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<Integer, Loan>> iterator() {
+                        Iterator<Loan> loans = Library.this.allLoans().iterator();
+                        return new Iterator<>() {
+                            @Override
+                            public boolean hasNext() {
+                                return loans.hasNext();
+                            }
+
+                            @Override
+                            public Entry<Integer, Loan> next() {
+                                Loan loan = loans.next();
+                                return new SimpleImmutableEntry<>(loan.getId(), loan);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return Library.this.loans.size() + Library.this.closedLoans.size();
+                    }
+                };
+            }
+        };
     }
 
+    // Активная выдача или копия закрытой из истории
     public Loan getLoan(int id) {
-        return this.loans.get(id);
+        Loan loan = this.loans.get(id);
+        return loan != null ? loan : this.closedLoans.get(id);
+    }
+
+    // Сначала активные выдачи, затем история: выдача, закрытая во время обхода, может встретиться дважды
+    private Collection<Loan> allLoans() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Loan> iterator() {
+                return Stream.concat(Library.this.loans.values().stream(),
+                        Library.this.closedLoans.values().stream()).iterator();
+            }
+
+            @Override
+            public int size() {
+                return Library.this.loans.size() + Library.this.closedLoans.size();
+            }
+        };
+    }
+
+    // Выдачи, которые ещё не вернули
+    public Collection<Loan> getActiveLoans() {
+        return Collections.unmodifiableCollection(this.loans.values());
     }
 
     public Map<Integer, User> getUsers() {
-        return this.users;
+        return this.users.asMap();
+    }
+
+    // Поиск книг по названию, автору или году, лучшие совпадения первыми.
+    // Возвращает не больше limit книг.
+    public List<Book> searchBooks(String query, int limit) {
+        long start = System.nanoTime();
+        try {
+            List<Book> result = this.bookSearchIndex.search(query, limit).stream()
+                    .map(this.books::get)
+                    .filter(Objects::nonNull)
+                    .toList();
+            this.searchBooksMetrics.success(start);
+            return result;
+        } catch (RuntimeException e) {
+            this.searchBooksMetrics.failure(start, e);
+            throw e;
+        }
     }
 
     public User getUser(int id) {
         return this.users.get(id);
     }
 
+    // Поиск читателя по точному e-mail без учёта регистра
+    public User findUserByEmail(String email) {
+        Integer id = this.userSearchIndex.findByEmail(email);
+        return id != null ? this.users.get(id) : null;
+    }
+
+    // Поиск читателей: точное совпадение id или e-mail, затем начало имени, фамилии или e-mail.
+    // Возвращает не больше limit читателей.
+    public List<User> searchUsers(String query, int limit) {
+        long start = System.nanoTime();
+        try {
+            List<User> result = this.findUsers(query, limit);
+            this.searchUsersMetrics.success(start);
+            return result;
+        } catch (RuntimeException e) {
+            this.searchUsersMetrics.failure(start, e);
+            throw e;
+        }
+    }
+
+    private List<User> findUsers(String query, int limit) {
+        Set<User> result = new LinkedHashSet<>();
+        String trimmed = query.strip();
+        if (!trimmed.isEmpty() && trimmed.chars().allMatch(Character::isDigit) && trimmed.length() < 10) {
+            User byId = this.users.get(Integer.parseInt(trimmed));
+            if (byId != null) {
+                result.add(byId);
+            }
+        }
+        User byEmail = this.findUserByEmail(trimmed);
+        if (byEmail != null) {
+            result.add(byEmail);
+        }
+        for (int id : this.userSearchIndex.findByPrefix(trimmed, limit)) {
+            if (result.size() >= limit) break;
+            User user = this.users.get(id);
+            if (user != null) {
+                result.add(user);
+            }
+        }
+        return List.copyOf(result);
+    }
+
     public int addBook(Book book) {
-        for (Book existBook : this.books.values()) {
-            if (existBook.equals(book)) {
+        long start = System.nanoTime();
+        try {
+            int bookId = this.addOrMergeBook(book);
+            this.addBookMetrics.success(start);
+            return bookId;
+        } catch (RuntimeException e) {
+            this.addBookMetrics.failure(start, e);
+            throw e;
+        }
+    }
+
+    private int addOrMergeBook(Book book) {
+        if (!this.isStorable(book.getTitle()) || !this.isStorable(book.getAuthor())) {
+            throw new BookValidationException("Название и автор не могут содержать ';' или перевод строки.");
+        }
+        int bookId;
+        this.checkpointLock.readLock().lock();
+        try {
+            Book existBook = this.bookKeys.putIfAbsent(book.normalizedKey(), book);
+            if (existBook != null) {
                 if (book.getTotalCopies() <= 0) {
                     throw new BookValidationException("Количество добавляемых книг не может быть меньше или равно нулю.");
                 }
-                existBook.setTotalCopies(existBook.getTotalCopies() + book.getTotalCopies());
-                try {
-                    saveBooks();
-                } catch (IOException e) {
-                    throw new IllegalArgumentException(e);
-                }
-                return existBook.getId();
+                int totalCopies = existBook.addCopies(book.getTotalCopies());
+                this.persist(LibraryJournal.COPIES, existBook.getId() + ";" + totalCopies, existBook, null, null);
+                bookId = existBook.getId();
+            } else {
+                this.books.put(book.getId(), book);
+                this.bookSearchIndex.add(book);
+                // Следующие книги этого автора из журнала и импорта возьмут его строку
+                this.authors.intern(book.getAuthor());
+                this.persist(LibraryJournal.ADD_BOOK, LibraryJournal.payload(book.getId(), book.getTitle(),
+                        book.getAuthor(), book.getYear(), book.getTotalCopies(), book.getAvailableCopies()), book, null, null);
+                bookId = book.getId();
             }
-        }
-
-        this.books.put(book.getId(), book);
-        try {
-            saveBooks();
-            return book.getId();
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
+        } finally {
+            this.checkpointLock.readLock().unlock();
         }
+        this.persistPending();
+        return bookId;
     }
 
     public void addUser(User user) {
-        boolean duplicate = users.values().contains(user);
-        if (duplicate) {
-            throw new UserAlreadyExistsException(user);
+        long start = System.nanoTime();
+        try {
+            this.insertUser(user);
+            this.addUserMetrics.success(start);
+        } catch (RuntimeException e) {
+            this.addUserMetrics.failure(start, e);
+            throw e;
         }
-        this.users.put(user.getId(), user);
+    }
+
+    private void insertUser(User user) {
+        if (!this.isStorable(user.getName()) || !this.isStorable(user.getEmail())) {
+            throw new IllegalArgumentException("Имя и эл.почта не могут содержать ';' или перевод строки.");
+        }
+        this.checkpointLock.readLock().lock();
         try {
-            this.saveUsers();
+            boolean duplicate = this.userKeys.putIfAbsent(user.normalizedKey(), user) != null;
+            if (duplicate) {
+                throw new UserAlreadyExistsException(user);
+            }
+            this.users.put(user.getId(), user);
+            this.userSearchIndex.add(user);
+            this.persist(LibraryJournal.ADD_USER,
+                    LibraryJournal.payload(user.getId(), user.getName(), user.getEmail()), null, user, null);
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
+        } finally {
+            this.checkpointLock.readLock().unlock();
         }
+        this.persistPending();
     }
 
     // Сохранение списка книг в файл
     public void saveBooks() throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(booksFile))) {
-            for (Book book : books.values()) {
-                writer.write(book.toFileString());
-                writer.newLine();
-            }
-        }
+        this.checkpoint(null, Set.of(), Set.of());
     }
 
     // Сохранение списка пользователей в файл
     public void saveUsers() throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(this.usersFile))) {
-            for (User user : this.users.values()) {
-                writer.write(user.toFileString());
-                writer.newLine();
+        this.checkpoint(Set.of(), null, Set.of());
+    }
+
+    // Массовый импорт книг из CSV с заголовком title,author,year,copies. Строки читаются пачками,
+    // пачка проверяется правилами Book параллельно и применяется под одной блокировкой.
+    // Книга, уже имеющаяся в каталоге или встреченная в файле раньше, получает экземпляры
+    // строки. Каталог сохраняется один раз в конце импорта, а не после каждой книги.
+    public ImportReport importBooks(Reader input) throws IOException {
+        long start = System.nanoTime();
+        try {
+            ImportCounts counts = this.importRows(input, BOOK_CSV_HEADER, Library::parseBookRow, this::applyBooks);
+            if (counts.accepted + counts.merged > 0) {
+                this.saveImport(null, Set.of());
             }
+            this.importBooksMetrics.success(start);
+            return counts.report(start);
+        } catch (IOException | RuntimeException e) {
+            this.importBooksMetrics.failure(start, e);
+            throw e;
         }
     }
 
-    // Загрузка списка книг из файла
-    private void loadBooks() throws IOException {
-        this.books.clear();
-        File file = new File(this.booksFile);
-        if (!file.exists()) return;
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Book book = Book.fromFileString(line);
-                this.books.put(book.getId(), book);
+    // Массовый импорт читателей из CSV с заголовком name,email. Повторы отклоняются, как в addUser.
+    public ImportReport importUsers(Reader input) throws IOException {
+        long start = System.nanoTime();
+        try {
+            ImportCounts counts = this.importRows(input, USER_CSV_HEADER, Library::parseUserRow, this::applyUsers);
+            if (counts.accepted > 0) {
+                this.saveImport(Set.of(), null);
             }
+            this.importUsersMetrics.success(start);
+            return counts.report(start);
+        } catch (IOException | RuntimeException e) {
+            this.importUsersMetrics.failure(start, e);
+            throw e;
         }
     }
 
-    // Загрузка списка читателей из файла
-    private void loadUsers() throws IOException {
-        this.users.clear();
-        File file = new File(this.usersFile);
-        if (!file.exists()) return;
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                User user = User.fromFileString(line);
-                user.setLibrary(this);
-                this.users.put(user.getId(), user);
+    // Импорт не пишется в журнал, поэтому в режиме журнала он завершается полной контрольной
+    // точкой: снимок всех хранилищ и поворот журнала под блокировкой изменений. Тогда журнал снова
+    // начинается от снимка. Записи отложенной записи, поставленные в очередь до снимка, допишутся
+    // в новый журнал и при загрузке применятся повторно без изменений. Без журнала достаточно
+    // перезаписать изменённое хранилище.
+    private void saveImport(Set<Integer> bookSegments, Set<Integer> userSegments) throws IOException {
+        if (this.journal != null) {
+            this.checkpoint(null, null, null);
+        } else {
+            this.checkpoint(bookSegments, userSegments, Set.of());
+        }
+    }
+
+    // Выгрузка каталога в CSV в формате importBooks. Возвращает количество книг.
+    public int exportBooks(Writer output) throws IOException {
+        return exportRows(output, BOOK_CSV_HEADER, this.streamBooks(), book -> CsvReader.format(
+                book.getTitle(), book.getAuthor(), String.valueOf(book.getYear()), String.valueOf(book.getTotalCopies())));
+    }
+
+    // Выгрузка читателей в CSV в формате importUsers. Возвращает количество читателей.
+    public int exportUsers(Writer output) throws IOException {
+        return exportRows(output, USER_CSV_HEADER, this.streamUsers(),
+                user -> CsvReader.format(user.getName(), user.getEmail()));
+    }
+
+    private static <T> int exportRows(Writer output, String[] header, Stream<T> values,
+                                      Function<T, String> toCsv) throws IOException {
+        BufferedWriter writer = new BufferedWriter(output);
+        writer.write(CsvReader.format(header));
+        writer.newLine();
+        int count = 0;
+        Iterator<T> iterator = values.iterator();
+        while (iterator.hasNext()) {
+            writer.write(toCsv.apply(iterator.next()));
+            writer.newLine();
+            count++;
+        }
+        writer.flush();
+        return count;
+    }
+
+    // Строка импорта после проверки: значение или причина отказа
+    private record ImportRow<T>(int line, T value, String error) {
+    }
+
+    // Счётчики одного импорта
+    private static final class ImportCounts {
+        private int accepted;
+        private int merged;
+        private int rejected;
+        private final List<String> errors = new ArrayList<>();
+
+        private void reject(int line, String error) {
+            this.rejected++;
+            if (this.errors.size() < ImportReport.MAX_ERRORS) {
+                this.errors.add("строка " + line + ": " + error);
             }
         }
+
+        private ImportReport report(long start) {
+            return new ImportReport(this.accepted, this.merged, this.rejected,
+                    List.copyOf(this.errors), (System.nanoTime() - start) / 1_000_000);
+        }
     }
 
-    // Выдача книги
-    public void borrowBook(int userId, int bookId) {
-        long activeLoanCount = loans.values().stream()
-                .filter(l -> l.getUserId() == userId && l.isActive())
-                .count();
+    private <T> ImportCounts importRows(Reader input, String[] header, Function<List<String>, T> parser,
+                                        ImportBatch<T> apply) throws IOException {
+        CsvReader csv = new CsvReader(input);
+        List<String> first = csv.next();
+        // Метка порядка байтов в начале файла не входит в заголовок
+        if (first == null || !first.stream().map(field -> field.replace("\uFEFF", "").trim().toLowerCase())
+                .toList().equals(List.of(header))) {
+            throw new IllegalArgumentException("Ожидался заголовок CSV: " + String.join(",", header));
+        }
+        ImportCounts counts = new ImportCounts();
+        List<ImportRow<List<String>>> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        List<String> fields;
+        while ((fields = csv.next()) != null) {
+            batch.add(new ImportRow<>(csv.lineNumber(), fields, null));
+            if (batch.size() == IMPORT_BATCH_SIZE) {
+                apply.apply(parseRows(batch, parser), counts);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            apply.apply(parseRows(batch, parser), counts);
+        }
+        return counts;
+    }
+
+    private interface ImportBatch<T> {
+        void apply(List<ImportRow<T>> rows, ImportCounts counts);
+    }
 
-        if (activeLoanCount >= MAX_BOOKS_PER_USER) {
-            throw new UserBookQuotaExceededException();
+    // Проверка не зависит от состояния библиотеки, поэтому строки пачки разбираются параллельно
+    private static <T> List<ImportRow<T>> parseRows(List<ImportRow<List<String>>> batch,
+                                                    Function<List<String>, T> parser) {
+        return batch.parallelStream().map(row -> {
+            try {
+                return new ImportRow<>(row.line(), parser.apply(row.value()), null);
+            } catch (RuntimeException e) {
+                return new ImportRow<T>(row.line(), null, e.getMessage());
+            }
+        }).toList();
+    }
+
+    // Поля книги из строки импорта, проверенные правилами Book. Книга с id создаётся только
+    // для принятой строки, поэтому отклонённые строки и повторы не оставляют пропусков в нумерации.
+    // Название в нижнем регистре вычисляется при параллельном разборе и служит ключом дубликатов.
+    private record BookRow(String title, String titleKey, String author, int year, int copies) {
+    }
+
+    private static BookRow parseBookRow(List<String> fields) {
+        checkImportFields(fields, BOOK_CSV_HEADER.length);
+        String title = fields.get(0).trim();
+        String author = fields.get(1).trim();
+        int year = parseImportNumber(fields.get(2), "год издания");
+        int copies = parseImportNumber(fields.get(3), "количество экземпляров");
+        Book.validate(title, author, year, copies, copies);
+        return new BookRow(title, StringDictionary.fold(title), author, year, copies);
+    }
+
+    private static User parseUserRow(List<String> fields) {
+        checkImportFields(fields, USER_CSV_HEADER.length);
+        String name = fields.get(0).trim();
+        String email = fields.get(1).trim();
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Имя читателя не может быть пустым.");
+        }
+        if (email.isEmpty()) {
+            throw new IllegalArgumentException("Эл.почта читателя не может быть пустой.");
         }
+        return new User(0, name, email);
+    }
 
-        User user = this.users.get(userId);
-        Book book = this.books.get(bookId);
+    // Текстовые хранилища (TEXT, SEGMENTED) разделяют поля ';' и записи переводом строки, такие
+    // значения испортили бы снимок. BINARY хранит строки с длиной, журнал экранирует поля.
+    private boolean isStorable(String field) {
+        return this.storageFormat == StorageFormat.BINARY || isLineSafe(field);
+    }
+
+    private static boolean isLineSafe(String field) {
+        return field.indexOf(';') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0;
+    }
+
+    // Хранилище разделяет поля ';' и записи переводом строки, такие поля его бы испортили
+    private static void checkImportFields(List<String> fields, int count) {
+        if (fields.size() != count) {
+            throw new IllegalArgumentException("Ожидалось полей: " + count + ", получено: " + fields.size() + ".");
+        }
+        for (String field : fields) {
+            if (!isLineSafe(field)) {
+                throw new IllegalArgumentException("Поле не может содержать ';' или перевод строки: " + field);
+            }
+        }
+    }
 
-        if (user == null) {
-            throw new UserNotFoundException("Читатель с id=" + userId + " не найден.");
+    private static int parseImportNumber(String field, String name) {
+        try {
+            return Integer.parseInt(field.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректное значение поля \"" + name + "\": " + field);
         }
-        if (book == null) {
-            throw new BookNotFoundException("Книга с id=" + bookId + " не найдена.");
+    }
+
+    private void applyBooks(List<ImportRow<BookRow>> rows, ImportCounts counts) {
+        this.checkpointLock.readLock().lock();
+        try {
+            for (ImportRow<BookRow> row : rows) {
+                if (row.error() != null) {
+                    counts.reject(row.line(), row.error());
+                    continue;
+                }
+                BookRow parsed = row.value();
+                StringDictionary.Entry author = this.authors.intern(parsed.author());
+                Book existBook = this.bookKeys.get(new Book.Key(parsed.titleKey(), author.folded(), parsed.year()));
+                if (existBook == null) {
+                    Book book = new Book(Book.nextId(), parsed.title(), author, parsed.year(), parsed.copies(), parsed.copies());
+                    existBook = this.bookKeys.putIfAbsent(book.normalizedKey(), book);
+                    if (existBook == null) {
+                        this.books.put(book.getId(), book);
+                        this.bookSearchIndex.add(book);
+                        counts.accepted++;
+                        continue;
+                    }
+                }
+                if (parsed.copies() <= 0) {
+                    counts.reject(row.line(), "Количество добавляемых книг не может быть меньше или равно нулю.");
+                    continue;
+                }
+                existBook.addCopies(parsed.copies());
+                counts.merged++;
+            }
+        } finally {
+            this.checkpointLock.readLock().unlock();
         }
+    }
 
-        //Уже у читателя
-        boolean isActiveLoan = loans.values().stream()
-                .anyMatch(l -> l.getBookId() == bookId &&
-                        l.getUserId() == userId &&
-                        l.isActive());
-        if (isActiveLoan) {
-            throw new IllegalStateException("Книга уже на руках у читателя.");
+    private void applyUsers(List<ImportRow<User>> rows, ImportCounts counts) {
+        this.checkpointLock.readLock().lock();
+        try {
+            for (ImportRow<User> row : rows) {
+                if (row.error() != null) {
+                    counts.reject(row.line(), row.error());
+                    continue;
+                }
+                if (this.userKeys.containsKey(row.value().normalizedKey())) {
+                    counts.reject(row.line(), new UserAlreadyExistsException(row.value()).getMessage());
+                    continue;
+                }
+                User user = new User(row.value().getName(), row.value().getEmail(), this);
+                if (this.userKeys.putIfAbsent(user.normalizedKey(), user) != null) {
+                    counts.reject(row.line(), new UserAlreadyExistsException(user).getMessage());
+                    continue;
+                }
+                this.users.put(user.getId(), user);
+                this.userSearchIndex.add(user);
+                counts.accepted++;
+            }
+        } finally {
+            this.checkpointLock.readLock().unlock();
         }
+    }
 
-        Loan loan = new Loan(bookId, userId, LocalDate.now(), this);
-        this.loans.put(loan.getId(), loan);
+    // Загрузка списка книг из файла
+    private int loadBooks() throws IOException {
+        this.books.clear();
+        this.bookKeys.clear();
+        this.bookSearchIndex.clear();
+        this.authors.clear();
+        if (this.storageFormat == StorageFormat.BINARY) {
+            BinaryStorage.readBooks(this.booksFile + BINARY_SUFFIX, this.authors, this::putBook);
+            return this.books.size();
+        }
+        if (this.storageFormat == StorageFormat.SEGMENTED) {
+            return readSegments(this.booksFile, line -> Book.fromFileString(line, this.authors), this::putBook);
+        }
+        return ParallelTextReader.read(this.booksFile, line -> Book.fromFileString(line, this.authors), this::putBook);
+    }
+
+    // Чтение сегментов хранилища по возрастанию номера, то есть в порядке id
+    private static <T> int readSegments(String storeFile, Function<String, T> parser,
+                                        Consumer<T> consumer) throws IOException {
+        File[] segments = new File(storeFile + SEGMENTS_SUFFIX).listFiles();
+        if (segments == null) return 0;
+        Arrays.sort(segments, Comparator.comparingInt((File file) -> Integer.parseInt(file.getName())));
+        int count = 0;
+        for (File segment : segments) {
+            count += ParallelTextReader.read(segment.getPath(), parser, consumer);
+        }
+        return count;
+    }
+
+    // Добавление книги вместе с индексом дубликатов
+    private void putBook(Book book) {
+        this.books.put(book.getId(), book);
+        this.bookKeys.putIfAbsent(book.normalizedKey(), book);
+        this.bookSearchIndex.add(book);
+    }
+
+    // Загрузка списка читателей из файла
+    private int loadUsers() throws IOException {
+        this.users.clear();
+        this.userKeys.clear();
+        this.userSearchIndex.clear();
+        Consumer<User> consumer = user -> {
+            user.setLibrary(this);
+            this.putUser(user);
+        };
+        if (this.storageFormat == StorageFormat.BINARY) {
+            BinaryStorage.readUsers(this.usersFile + BINARY_SUFFIX, consumer);
+            return this.users.size();
+        }
+        if (this.storageFormat == StorageFormat.SEGMENTED) {
+            return readSegments(this.usersFile, User::fromFileString, consumer);
+        }
+        return ParallelTextReader.read(this.usersFile, User::fromFileString, consumer);
+    }
+
+    // Добавление читателя вместе с индексом дубликатов
+    private void putUser(User user) {
+        this.users.put(user.getId(), user);
+        this.userKeys.putIfAbsent(user.normalizedKey(), user);
+        this.userSearchIndex.add(user);
+    }
+
+    // Выдача книги
+    public Loan borrowBook(int userId, int bookId) {
+        long start = System.nanoTime();
+        try {
+            Loan loan = this.giveBook(userId, bookId);
+            this.borrowMetrics.success(start);
+            return loan;
+        } catch (RuntimeException e) {
+            this.borrowMetrics.failure(start, e);
+            throw e;
+        }
+    }
 
-        book.giveBook();
+    private Loan giveBook(int userId, int bookId) {
+        Loan loan;
+        this.checkpointLock.readLock().lock();
         try {
-            this.saveLoans();
-            this.saveBooks();
-            System.out.println("Книга выдана:");
-            System.out.println(loan);
+            synchronized (this.userLock(userId)) {
+                UserLoans userLoans = this.loansByUser.get(userId);
+                int activeLoanCount = userLoans != null ? userLoans.activeCount() : 0;
+
+                if (activeLoanCount >= MAX_BOOKS_PER_USER) {
+                    throw new UserBookQuotaExceededException();
+                }
+
+                User user = this.users.get(userId);
+                Book book = this.books.get(bookId);
+
+                if (user == null) {
+                    throw new UserNotFoundException("Читатель с id=" + userId + " не найден.");
+                }
+                if (book == null) {
+                    throw new BookNotFoundException("Книга с id=" + bookId + " не найдена.");
+                }
+
+                //Уже у читателя
+                boolean isActiveLoan = userLoans != null && userLoans.findActive(bookId) != null;
+                if (isActiveLoan) {
+                    throw new IllegalStateException("Книга уже на руках у читателя.");
+                }
+
+                book.giveBook();
+                loan = new Loan(bookId, userId, this.clock.todayDate(), this);
+                this.putLoan(loan);
+
+                // Записи одного читателя попадают в журнал в том же порядке, что и в память
+                if (this.loanStore != null) {
+                    this.loanStore.append(loan);
+                } else {
+                    this.persist(LibraryJournal.BORROW, loan.toFileString(), book, null, loan);
+                }
+            }
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
+        } finally {
+            this.checkpointLock.readLock().unlock();
         }
+        this.persistPending();
+        return loan;
     }
 
     // Возврат книги
     public void returnBook(int userId, int bookId) {
-        Loan loan = null;
-        for (Loan l : this.loans.values()) {
-            if (l.getUserId() == userId && l.getBookId() == bookId && l.isActive()) {
-                loan = l;
-                break;
-            }
+        long start = System.nanoTime();
+        try {
+            this.takeBack(userId, bookId);
+            this.returnMetrics.success(start);
+        } catch (RuntimeException e) {
+            this.returnMetrics.failure(start, e);
+            throw e;
         }
-        if (loan == null) {
-            throw new BookFromUserNotFoundException("У читателя нет на руках книги с id=" + bookId);
+    }
+
+    private void takeBack(int userId, int bookId) {
+        this.checkpointLock.readLock().lock();
+        try {
+            synchronized (this.userLock(userId)) {
+                UserLoans userLoans = this.loansByUser.get(userId);
+                Loan loan = userLoans != null ? userLoans.findActive(bookId) : null;
+                if (loan == null) {
+                    throw new BookFromUserNotFoundException("У читателя нет на руках книги с id=" + bookId);
+                }
+
+                this.closeLoan(loan, this.clock.todayDate());
+                Book book = books.get(bookId);
+                book.returnBook();
+
+                // В loans.map дату возврата уже записал closeLoan()
+                if (this.loanStore == null) {
+                    this.persist(LibraryJournal.RETURN, loan.getId() + ";" + loan.getReturnDate(), book, null, loan);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            this.checkpointLock.readLock().unlock();
         }
+        this.persistPending();
+    }
 
-        loan.setReturnDate(LocalDate.now());
-        Book book = books.get(bookId);
-        book.returnBook();
+    // Сохранение изменения: запись в журнал или отметка сегментов изменённых записей.
+    // Отмеченные сегменты перезаписываются контрольной точкой после снятия блокировки изменения,
+    // при отложенной записи - фоновым потоком.
+    private void persist(String journalType, String journalPayload,
+                         Book book, User user, Loan loan) throws IOException {
+        if (this.journal != null) {
+            WriteBehindWriter writer = this.writer;
+            if (writer != null) {
+                writer.enqueue(journalType, journalPayload);
+            } else {
+                this.journal.append(journalType, journalPayload);
+            }
+            return;
+        }
+        if (book != null) this.dirtyBookSegments.add(segmentOf(book.getId()));
+        if (user != null) this.dirtyUserSegments.add(segmentOf(user.getId()));
+        if (loan != null) this.dirtyLoanSegments.add(segmentOf(loan.getId()));
+    }
 
+    // Вызывается после снятия блокировки изменения
+    private void persistPending() {
         try {
-            this.saveLoans();
-            this.saveBooks();
+            if (this.journal == null && this.writer == null) {
+                this.checkpointDirty();
+            }
+            this.compactJournalIfNeeded();
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
     }
 
-    // Сохранить выдачи в файл
-    public void saveLoans() throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(this.loansFile))) {
-            for (Loan loan : this.loans.values()) {
-                writer.write(loan.toFileString());
+    // Запись изменённых сегментов одной контрольной точкой. Если изменение уже попало
+    // в контрольную точку другого потока, вызов дождётся её завершения.
+    void checkpointDirty() throws IOException {
+        synchronized (this.storageLock) {
+            Set<Integer> books = drain(this.dirtyBookSegments);
+            Set<Integer> users = drain(this.dirtyUserSegments);
+            Set<Integer> loans = drain(this.dirtyLoanSegments);
+            if (books.isEmpty() && users.isEmpty() && loans.isEmpty()) return;
+            try {
+                this.checkpoint(books, users, loans);
+            } catch (IOException | RuntimeException e) {
+                this.dirtyBookSegments.addAll(books);
+                this.dirtyUserSegments.addAll(users);
+                this.dirtyLoanSegments.addAll(loans);
+                throw e;
+            }
+        }
+    }
+
+    // Изъятие отметок: отметка, добавленная во время обхода, либо изымается, либо остаётся до следующего раза
+    private static Set<Integer> drain(Set<Integer> dirty) {
+        Set<Integer> result = new HashSet<>();
+        for (Integer segment : dirty) {
+            if (dirty.remove(segment)) {
+                result.add(segment);
+            }
+        }
+        return result;
+    }
+
+    private static int segmentOf(int id) {
+        return Math.floorDiv(id, SEGMENT_SIZE);
+    }
+
+    // Контрольная точка: состояние выбранных сегментов снимается в память под блокировкой
+    // изменений, а на диск пишется уже после её снятия, операции в это время продолжаются.
+    // Для каждого хранилища передаются номера сегментов: null - хранилище целиком, пустое множество -
+    // хранилище не менялось. Файлы пишутся во временные и атомарно подменяют рабочие все вместе
+    // (StorageCheckpoint). Полный снимок в режиме журнала откладывает журнал в journal.prev
+    // и удаляет его только после записи снимка, так что сбой на любом шаге не теряет изменений.
+    private void checkpoint(Set<Integer> bookSegments, Set<Integer> userSegments,
+                            Set<Integer> loanSegments) throws IOException {
+        long start = System.nanoTime();
+        try {
+            this.writeCheckpoint(bookSegments, userSegments, loanSegments);
+            this.checkpointMetrics.success(start);
+        } catch (IOException | RuntimeException e) {
+            this.checkpointMetrics.failure(start, e);
+            throw e;
+        }
+    }
+
+    private void writeCheckpoint(Set<Integer> bookSegments, Set<Integer> userSegments,
+                                 Set<Integer> loanSegments) throws IOException {
+        synchronized (this.storageLock) {
+            Map<String, byte[]> files = new LinkedHashMap<>();
+            boolean rotated = false;
+            this.checkpointLock.writeLock().lock();
+            try {
+                this.encodeStore(files, "books", new StoreRecords<>(this.books.values(), this.books::get, Book::getId),
+                        bookSegments, Book::toFileString, BinaryStorage::writeBooks);
+                this.encodeStore(files, "users", new StoreRecords<>(this.users.values(), this.users::get, User::getId),
+                        userSegments, User::toFileString, BinaryStorage::writeUsers);
+                if (this.loanStore == null) {
+                    this.encodeStore(files, "loans", new StoreRecords<>(this.allLoans(), this::getLoan, Loan::getId),
+                            loanSegments, Loan::toFileString, BinaryStorage::writeLoans);
+                }
+                if (this.journal != null && bookSegments == null && userSegments == null && loanSegments == null) {
+                    this.journal.rotate();
+                    rotated = true;
+                }
+            } finally {
+                this.checkpointLock.writeLock().unlock();
+            }
+            if (this.storageFormat == StorageFormat.SEGMENTED) {
+                for (String store : List.of("books", "users", "loans")) {
+                    Files.createDirectories(this.storageDir.resolve(store + SEGMENTS_SUFFIX));
+                }
+            }
+            StorageCheckpoint.write(this.storageDir, files);
+            if (this.loanStore != null && (loanSegments == null || !loanSegments.isEmpty())) {
+                this.loanStore.force();
+            }
+            if (rotated) {
+                this.journal.dropPrevious();
+            }
+        }
+    }
+
+    // Содержимое файлов хранилища для контрольной точки. В формате SEGMENTED сегмент собирается
+    // по диапазону id, поэтому стоимость пропорциональна числу изменённых сегментов, а не размеру хранилища.
+    private <T> void encodeStore(Map<String, byte[]> files, String store, StoreRecords<T> records,
+                                 Set<Integer> segments, Function<T, String> toFileString,
+                                 BinaryWriter<T> binaryWriter) throws IOException {
+        if (segments != null && segments.isEmpty()) return;
+        if (this.storageFormat != StorageFormat.SEGMENTED) {
+            String name = this.storageFormat == StorageFormat.BINARY ? store + BINARY_SUFFIX : store;
+            files.put(name, this.encode(records.values(), toFileString, binaryWriter));
+            return;
+        }
+        Map<Integer, List<T>> bySegment = new TreeMap<>();
+        if (segments == null) {
+            for (T value : records.values()) {
+                bySegment.computeIfAbsent(segmentOf(records.idOf().applyAsInt(value)), s -> new ArrayList<>()).add(value);
+            }
+        } else {
+            for (int segment : segments) {
+                List<T> segmentValues = new ArrayList<>();
+                for (int id = segment * SEGMENT_SIZE; id < (segment + 1) * SEGMENT_SIZE; id++) {
+                    T value = records.byId().apply(id);
+                    if (value != null) {
+                        segmentValues.add(value);
+                    }
+                }
+                bySegment.put(segment, segmentValues);
+            }
+        }
+        for (Map.Entry<Integer, List<T>> entry : bySegment.entrySet()) {
+            List<T> segmentValues = entry.getValue();
+            segmentValues.sort(Comparator.comparingInt(records.idOf()));
+            files.put(store + SEGMENTS_SUFFIX + "/" + entry.getKey(), this.encode(segmentValues, toFileString, binaryWriter));
+        }
+    }
+
+    // Записи хранилища для контрольной точки: все записи, поиск по id и id записи
+    private record StoreRecords<T>(Collection<T> values, IntFunction<T> byId, ToIntFunction<T> idOf) {
+    }
+
+    private interface BinaryWriter<T> {
+        void write(OutputStream out, Iterable<T> values) throws IOException;
+    }
+
+    private <T> byte[] encode(Collection<T> values, Function<T, String> toFileString,
+                              BinaryWriter<T> binaryWriter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (this.storageFormat == StorageFormat.BINARY) {
+            binaryWriter.write(bytes, values);
+            return bytes.toByteArray();
+        }
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(bytes))) {
+            for (T value : values) {
+                writer.write(toFileString.apply(value));
                 writer.newLine();
             }
         }
+        return bytes.toByteArray();
+    }
+
+    private Object userLock(int userId) {
+        return this.userLocks[Math.floorMod(userId, this.userLocks.length)];
+    }
+
+    // Сохранить выдачи в файл
+    public void saveLoans() throws IOException {
+        this.checkpoint(Set.of(), Set.of(), null);
     }
 
     // Загрузить список книг на руках у читателей из файла
-    public void loadLoans() throws IOException {
+    public int loadLoans() throws IOException {
+        this.clearLoans();
+        Consumer<Loan> consumer = loan -> {
+            loan.setLibrary(this);
+            this.putLoan(loan);
+        };
+        if (this.storageFormat == StorageFormat.BINARY) {
+            BinaryStorage.readLoans(this.loansFile + BINARY_SUFFIX, consumer);
+            return this.loans.size() + this.closedLoans.size();
+        }
+        if (this.storageFormat == StorageFormat.SEGMENTED) {
+            return readSegments(this.loansFile, Loan::fromFileString, consumer);
+        }
+        return ParallelTextReader.read(this.loansFile, Loan::fromFileString, consumer);
+    }
+
+    // Загрузка выдач из loans.map: в память попадают только активные выдачи. Если файла ещё нет,
+    // выдачи читаются из обычного хранилища и переносятся в него.
+    private int loadMappedLoans() throws IOException {
+        if (this.loanStore != null) {
+            this.loanStore.close();
+            this.loanStore = null;
+        }
+        boolean migrate = !MappedLoanStore.exists(this.mappedLoansFile);
+        if (migrate) {
+            this.loadLoans();
+        } else {
+            this.clearLoans();
+        }
+        MappedLoanStore store = MappedLoanStore.open(this.mappedLoansFile, this, loan -> {
+            loan.setLibrary(this);
+            this.putLoan(loan);
+        });
+        if (migrate) {
+            for (Loan loan : this.allLoans()) {
+                store.append(loan);
+            }
+            store.force();
+        }
+        this.loanStore = store;
+        this.closedLoans = store;
+        this.loanHistory.clear();
+        return this.loans.size() + store.size();
+    }
+
+    private void clearLoans() {
         this.loans.clear();
-        File f = new File(this.loansFile);
-        if (!f.exists()) return;
-        try (BufferedReader reader = new BufferedReader(new FileReader(f))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Loan loan = Loan.fromFileString(line);
+        this.loanHistory.clear();
+        this.closedLoans = this.loanHistory;
+        this.loansByUser.clear();
+        this.loansByBook.clear();
+        this.activeLoansByDueDay.clear();
+    }
+
+    // Добавление выдачи вместе с индексами. Закрытая выдача сразу уходит в историю.
+    private void putLoan(Loan loan) {
+        if (!loan.isActive()) {
+            this.closedLoans.add(loan);
+            UserLoans userLoans = this.loansByUser.get(loan.getUserId());
+            if (userLoans != null) {
+                userLoans.closedAdded();
+            }
+            return;
+        }
+        this.loans.put(loan.getId(), loan);
+        this.loansByUser.computeIfAbsent(loan.getUserId(), id -> new UserLoans()).add(loan);
+        this.loansByBook.computeIfAbsent(loan.getBookId(), id -> Collections.synchronizedList(new ArrayList<>())).add(loan);
+        this.activeLoansByDueDay.computeIfAbsent(loan.getDueDay(), day -> new IntObjectMap<>(DUE_DAY_SEGMENTS))
+                .put(loan.getId(), loan);
+    }
+
+    // Закрытие выдачи: книга вернулась, выдача переносится в историю. В историю она попадает
+    // раньше, чем удаляется из активных, чтобы getLoan() находил её всё время.
+    private void closeLoan(Loan loan, LocalDate returnDate) {
+        loan.setReturnDate(returnDate);
+        this.closedLoans.add(loan);
+        this.loans.remove(loan.getId());
+        UserLoans userLoans = this.loansByUser.get(loan.getUserId());
+        if (userLoans != null) {
+            userLoans.close(loan);
+        }
+        List<Loan> bookLoans = this.loansByBook.get(loan.getBookId());
+        if (bookLoans != null) {
+            bookLoans.removeIf(active -> active == loan);
+        }
+        IntObjectMap<Loan> dueDayLoans = this.activeLoansByDueDay.get(loan.getDueDay());
+        if (dueDayLoans != null) {
+            dueDayLoans.remove(loan.getId());
+        }
+    }
+
+    // Сжатие журнала при достижении порога. Вызывается после снятия блокировки изменения.
+    private void compactJournalIfNeeded() throws IOException {
+        if (this.journal == null || this.journal.size() < this.journalCompactThreshold) return;
+        synchronized (this.storageLock) {
+            if (this.journal.size() >= this.journalCompactThreshold) {
+                this.checkpoint(null, null, null);
+            }
+        }
+    }
+
+    // Сжатие журнала: сохранение полного снимка и очистка журнала
+    public void compactJournal() throws IOException {
+        this.checkpoint(null, null, null);
+    }
+
+    // Применение записи журнала при загрузке. Повторное применение не меняет состояние,
+    // поэтому журнал, оставшийся после прерванного сжатия, безопасно проигрывается поверх снимка.
+    // Выдачи разных читателей попадают в журнал не строго по порядку, поэтому доступные
+    // экземпляры затронутых книг пересчитываются по активным выдачам после проигрывания.
+    private void applyJournalRecord(String type, String payload, Set<Integer> touchedBooks) {
+        switch (type) {
+            case LibraryJournal.ADD_BOOK -> {
+                List<String> fields = journalFields(payload, 6);
+                Book book = new Book(Integer.parseInt(fields.get(0)), fields.get(1), this.authors.intern(fields.get(2)),
+                        Integer.parseInt(fields.get(3)), Integer.parseInt(fields.get(4)), Integer.parseInt(fields.get(5)));
+                if (!this.books.containsKey(book.getId())) {
+                    this.putBook(book);
+                }
+            }
+            case LibraryJournal.ADD_USER -> {
+                List<String> fields = journalFields(payload, 3);
+                User user = new User(Integer.parseInt(fields.get(0)), fields.get(1), fields.get(2));
+                user.setLibrary(this);
+                if (!this.users.containsKey(user.getId())) {
+                    this.putUser(user);
+                }
+            }
+            case LibraryJournal.COPIES -> {
+                String[] parts = payload.split(";");
+                Book book = this.books.get(Integer.parseInt(parts[0]));
+                int totalCopies = Integer.parseInt(parts[1]);
+                if (book != null && book.getTotalCopies() < totalCopies) {
+                    book.addCopies(totalCopies - book.getTotalCopies());
+                }
+            }
+            case LibraryJournal.BORROW -> {
+                Loan loan = Loan.fromFileString(payload);
+                // Снимок выдач мог быть записан отдельно от книг, поэтому книга пересчитывается,
+                // даже если выдача уже есть
+                touchedBooks.add(loan.getBookId());
+                if (this.loans.containsKey(loan.getId()) || this.closedLoans.contains(loan.getId())) return;
                 loan.setLibrary(this);
-                this.loans.put(loan.getId(), loan);
+                this.putLoan(loan);
+                this.storeReplayedLoan(loan);
             }
+            case LibraryJournal.RETURN -> {
+                String[] parts = payload.split(";");
+                int id = Integer.parseInt(parts[0]);
+                Loan loan = this.loans.get(id);
+                if (loan == null) {
+                    Loan closed = this.closedLoans.get(id);
+                    if (closed != null) {
+                        touchedBooks.add(closed.getBookId());
+                    }
+                    return;
+                }
+                this.closeLoan(loan, LocalDate.parse(parts[1]));
+                this.storeReplayedLoan(loan);
+                touchedBooks.add(loan.getBookId());
+            }
+            default -> throw new IllegalArgumentException("Неизвестный тип записи журнала: " + type);
+        }
+    }
+
+    private static List<String> journalFields(String payload, int count) {
+        List<String> fields = LibraryJournal.fields(payload);
+        if (fields.size() != count) {
+            throw new IllegalArgumentException("Некорректная запись журнала: " + payload);
+        }
+        return fields;
+    }
+
+    // Выдачи из журнала, записанного до включения loans.map, переносятся в него при проигрывании
+    private void storeReplayedLoan(Loan loan) {
+        if (this.loanStore == null) return;
+        try {
+            this.loanStore.append(loan);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
         }
     }
 
-    //Поиск просроченных выдач (надо вернуть в течение 30 дней после получения)
+    private void recountAvailableCopies(int bookId) {
+        Book book = this.books.get(bookId);
+        if (book == null) return;
+        List<Loan> bookLoans = this.loansByBook.get(bookId);
+        int onHand = bookLoans != null ? bookLoans.size() : 0;
+        book.restoreAvailableCopies(Math.max(0, book.getTotalCopies() - onHand));
+    }
+
+    //Поиск просроченных выдач (надо вернуть в течение 30 дней после получения).
+    // Просматриваются только дни со сроком до сегодняшнего, давно просроченные первыми.
     public List<Loan> getExpiredLoans() {
-        return loans.values().stream()
-                .filter(Loan::isExpired)
-                .toList();
+        long start = System.nanoTime();
+        try {
+            List<Loan> result = this.streamExpiredLoans().toList();
+            this.expiredLoansMetrics.success(start);
+            return result;
+        } catch (RuntimeException e) {
+            this.expiredLoansMetrics.failure(start, e);
+            throw e;
+        }
+    }
+
+    // Просроченные выдачи по мере обхода дней, без сборки общего списка
+    public Stream<Loan> streamExpiredLoans() {
+        int today = this.clock.today();
+        return this.activeLoansByDueDay.headMap(today, false).values().stream()
+                .flatMap(dueDayLoans -> dueDayLoans.values().stream());
+    }
+
+    // Страница просроченных выдач по дню окончания срока, затем по id. Курсор - id последней
+    // выдачи страницы: по нему восстанавливается день, с которого продолжается обход. Выдача
+    // остаётся доступной и после возврата, поэтому курсор не теряется.
+    public Page<Loan> getExpiredLoansPage(int cursor, int limit) {
+        long start = System.nanoTime();
+        try {
+            Page<Loan> page = this.expiredLoansPage(cursor, limit);
+            this.expiredLoansMetrics.success(start);
+            return page;
+        } catch (RuntimeException e) {
+            this.expiredLoansMetrics.failure(start, e);
+            throw e;
+        }
+    }
+
+    private Page<Loan> expiredLoansPage(int cursor, int limit) {
+        checkPage(cursor, limit);
+        int fromDay = Integer.MIN_VALUE;
+        if (cursor != Page.FIRST) {
+            Loan last = this.getLoan(cursor);
+            if (last == null) {
+                throw new IllegalArgumentException("Некорректный курсор страницы: " + cursor);
+            }
+            fromDay = last.getDueDay();
+        }
+        int today = this.clock.today();
+        List<Loan> items = new ArrayList<>(Math.min(limit, STREAM_PAGE_SIZE));
+        for (Map.Entry<Integer, IntObjectMap<Loan>> day
+                : this.activeLoansByDueDay.subMap(fromDay, true, today, false).entrySet()) {
+            List<Loan> dayLoans = new ArrayList<>(day.getValue().values());
+            dayLoans.sort(Comparator.comparingInt(Loan::getId));
+            for (Loan loan : dayLoans) {
+                if (day.getKey() == fromDay && loan.getId() <= cursor) continue;
+                if (items.size() == limit) {
+                    return new Page<>(List.copyOf(items), items.get(limit - 1).getId());
+                }
+                items.add(loan);
+            }
+        }
+        return new Page<>(List.copyOf(items), Page.END);
     }
 
     // Просмотр истории выдач: По конкретному пользователю
@@ -261,10 +1480,229 @@ public class Library {
         return this.getUser(userId).getUserLoans();
     }
 
+    // Все выдачи читателя в порядке id: активные и закрытые из истории. Список хранится
+    // у читателя и строится заново только после его выдачи или возврата.
+    public List<Loan> getUserLoans(int userId) {
+        if (!this.users.containsKey(userId)) {
+            return mergeLoans(List.of(), this.closedLoans.byUser(userId));
+        }
+        UserLoans userLoans = this.loansByUser.computeIfAbsent(userId, id -> new UserLoans());
+        return userLoans.history(() -> mergeLoans(userLoans.active(), this.closedLoans.byUser(userId)));
+    }
+
+    // Книги на руках у читателя, последние выданные первыми
+    public List<Loan> getCurrentLoans(int userId) {
+        UserLoans userLoans = this.loansByUser.get(userId);
+        return userLoans != null ? userLoans.active() : List.of();
+    }
+
     //Просмотр истории выдач: По конкретной книге
     public List<Loan> getBookLoanHistory(int bookId) {
-        return loans.values().stream()
-                .filter(l -> l.getBookId() == bookId)
-                .toList();
+        List<Loan> bookLoans = this.loansByBook.get(bookId);
+        List<Loan> active = bookLoans != null ? List.copyOf(bookLoans) : List.of();
+        return mergeLoans(active, this.closedLoans.byBook(bookId));
+    }
+
+    // Активные выдачи читаются раньше истории: выдача, закрытая между чтениями, есть в обоих
+    // списках и остаётся в закрытом виде
+    private static List<Loan> mergeLoans(List<Loan> active, List<Loan> closed) {
+        Map<Integer, Loan> byId = new TreeMap<>();
+        for (Loan loan : active) {
+            byId.put(loan.getId(), loan);
+        }
+        for (Loan loan : closed) {
+            byId.put(loan.getId(), loan);
+        }
+        return List.copyOf(byId.values());
+    }
+
+    // Постраничное чтение по возрастанию id. Id выдаются подряд, поэтому страница обычно
+    // собирается обходом id после курсора, без сортировки. Id из файлов хранилища могут идти
+    // с большими пропусками, для них страница выбирается из занятых ключей (см. idPage).
+    public Page<Book> getBooksPage(int cursor, int limit) {
+        return idPage(cursor, limit, this.books.maxKey(), this.books::get, this.books::forEachKey);
+    }
+
+    public Page<User> getUsersPage(int cursor, int limit) {
+        return idPage(cursor, limit, this.users.maxKey(), this.users::get, this.users::forEachKey);
+    }
+
+    // Активные и закрытые выдачи
+    public Page<Loan> getLoansPage(int cursor, int limit) {
+        ClosedLoans closedLoans = this.closedLoans;
+        return idPage(cursor, limit, Math.max(this.loans.maxKey(), closedLoans.maxId()), this::getLoan, action -> {
+            this.loans.forEachKey(action);
+            closedLoans.forEachId(action);
+        });
+    }
+
+    // История читателя и книги: сортируются только id, объекты выдач собираются для одной страницы
+    public Page<Loan> getUserLoansPage(int userId, int cursor, int limit) {
+        UserLoans userLoans = this.loansByUser.get(userId);
+        List<Loan> active = userLoans != null ? userLoans.active() : List.of();
+        return this.loanPage(active, this.closedLoans.idsByUser(userId), cursor, limit);
+    }
+
+    public Page<Loan> getBookLoanHistoryPage(int bookId, int cursor, int limit) {
+        List<Loan> bookLoans = this.loansByBook.get(bookId);
+        List<Loan> active = bookLoans != null ? List.copyOf(bookLoans) : List.of();
+        return this.loanPage(active, this.closedLoans.idsByBook(bookId), cursor, limit);
+    }
+
+    // Потоки читают хранилище страницами по мере потребления: первые записи доступны сразу,
+    // весь список в памяти не собирается
+    public Stream<Book> streamBooks() {
+        return streamPages(cursor -> this.getBooksPage(cursor, STREAM_PAGE_SIZE));
+    }
+
+    public Stream<User> streamUsers() {
+        return streamPages(cursor -> this.getUsersPage(cursor, STREAM_PAGE_SIZE));
+    }
+
+    public Stream<Loan> streamLoans() {
+        return streamPages(cursor -> this.getLoansPage(cursor, STREAM_PAGE_SIZE));
+    }
+
+    public Stream<Loan> streamUserLoans(int userId) {
+        return streamPages(cursor -> this.getUserLoansPage(userId, cursor, STREAM_PAGE_SIZE));
+    }
+
+    public Stream<Loan> streamBookLoanHistory(int bookId) {
+        return streamPages(cursor -> this.getBookLoanHistoryPage(bookId, cursor, STREAM_PAGE_SIZE));
+    }
+
+    private static <T> Stream<T> streamPages(IntFunction<Page<T>> pages) {
+        return Stream.iterate(pages.apply(Page.FIRST), Objects::nonNull,
+                        page -> page.hasNext() ? pages.apply(page.nextCursor()) : null)
+                .flatMap(page -> page.items().stream());
+    }
+
+    private static void checkPage(int cursor, int limit) {
+        if (cursor < 0) {
+            throw new IllegalArgumentException("Некорректный курсор страницы: " + cursor);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным.");
+        }
+    }
+
+    // Id после курсора проверяются подряд, пока пропусков не больше, чем limit + PAGE_GAPS.
+    // Дальше обход диапазона id стоил бы O(диапазона), поэтому остаток страницы выбирается
+    // за один обход занятых ключей keys: O(n log limit) вместо числа пропущенных id.
+    private static <T> Page<T> idPage(int cursor, int limit, int maxId, IntFunction<T> byId,
+                                      Consumer<IntConsumer> keys) {
+        checkPage(cursor, limit);
+        List<T> items = new ArrayList<>(Math.min(limit, STREAM_PAGE_SIZE));
+        long gaps = (long) limit + PAGE_GAPS;
+        int id = cursor;
+        while (items.size() < limit && id < maxId) {
+            id++;
+            T value = byId.apply(id);
+            if (value != null) {
+                items.add(value);
+            } else if (--gaps == 0) {
+                return sparsePage(items, id, limit, byId, keys);
+            }
+        }
+        return new Page<>(List.copyOf(items), id < maxId ? id : Page.END);
+    }
+
+    private static <T> Page<T> sparsePage(List<T> items, int after, int limit, IntFunction<T> byId,
+                                          Consumer<IntConsumer> keys) {
+        int wanted = limit - items.size();
+        // Один лишний id показывает, есть ли следующая страница
+        NextIds next = new NextIds(after, wanted < Integer.MAX_VALUE ? wanted + 1 : wanted);
+        keys.accept(next);
+        int[] ids = next.sorted();
+        int last = after;
+        int i = 0;
+        while (i < ids.length && items.size() < limit) {
+            int id = ids[i++];
+            // Выдача, закрытая во время обхода, встречается среди ключей дважды
+            if (id == last) continue;
+            last = id;
+            T value = byId.apply(id);
+            if (value != null) {
+                items.add(value);
+            }
+        }
+        return new Page<>(List.copyOf(items), i < ids.length ? last : Page.END);
+    }
+
+    // Наименьшие id больше after, не больше count штук. Куча держит наибольший отобранный id
+    // в вершине, поэтому каждый ключ обхода проверяется за O(1) или O(log count).
+    private static final class NextIds implements IntConsumer {
+        private final int after;
+        private final int count;
+        private int[] heap;
+        private int size;
+
+        NextIds(int after, int count) {
+            this.after = after;
+            this.count = count;
+            this.heap = new int[Math.min(count, 16)];
+        }
+
+        @Override
+        public void accept(int id) {
+            if (id <= this.after) return;
+            if (this.size < this.count) {
+                if (this.size == this.heap.length) {
+                    this.heap = Arrays.copyOf(this.heap, (int) Math.min(this.heap.length * 2L, this.count));
+                }
+                int i = this.size++;
+                while (i > 0 && this.heap[(i - 1) / 2] < id) {
+                    this.heap[i] = this.heap[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                this.heap[i] = id;
+            } else if (id < this.heap[0]) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= this.size) break;
+                    if (child + 1 < this.size && this.heap[child + 1] > this.heap[child]) child++;
+                    if (this.heap[child] <= id) break;
+                    this.heap[i] = this.heap[child];
+                    i = child;
+                }
+                this.heap[i] = id;
+            }
+        }
+
+        int[] sorted() {
+            int[] ids = Arrays.copyOf(this.heap, this.size);
+            Arrays.sort(ids);
+            return ids;
+        }
+    }
+
+    // Выдача, закрытая между чтением активных и истории, встречается среди id дважды
+    private Page<Loan> loanPage(List<Loan> active, int[] closedIds, int cursor, int limit) {
+        checkPage(cursor, limit);
+        int[] ids = Arrays.copyOf(closedIds, closedIds.length + active.size());
+        for (int i = 0; i < active.size(); i++) {
+            ids[closedIds.length + i] = active.get(i).getId();
+        }
+        Arrays.sort(ids);
+        List<Loan> items = new ArrayList<>(Math.min(limit, ids.length));
+        int i = 0;
+        while (i < ids.length && ids[i] <= cursor) {
+            i++;
+        }
+        int last = cursor;
+        while (i < ids.length && items.size() < limit) {
+            int id = ids[i++];
+            if (id == last) continue;
+            last = id;
+            Loan loan = this.getLoan(id);
+            if (loan != null) {
+                items.add(loan);
+            }
+        }
+        while (i < ids.length && ids[i] == last) {
+            i++;
+        }
+        return new Page<>(List.copyOf(items), i < ids.length ? last : Page.END);
     }
-}
\ No newline at end of file
+}
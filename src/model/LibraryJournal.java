@@ -0,0 +1,184 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+// Журнал изменений библиотеки: одна строка "ТИП;данные" на каждую операцию.
+// Поля данных разделяются ';', символы ';', '\' и переводы строк внутри поля экранируются
+// обратной косой чертой (payload/fields), поэтому название книги с ';' не ломает запись.
+class LibraryJournal {
+    static final String ADD_BOOK = "ADD_BOOK";
+    static final String ADD_USER = "ADD_USER";
+    static final String COPIES = "COPIES";
+    static final String BORROW = "BORROW";
+    static final String RETURN = "RETURN";
+
+    private static final String PREVIOUS_SUFFIX = ".prev";
+
+    private final String journalFile;
+    private final String previousFile;
+    private FileOutputStream output;
+    private BufferedWriter writer;
+    private int records;
+
+    LibraryJournal(String journalFile) {
+        this.journalFile = journalFile;
+        this.previousFile = journalFile + PREVIOUS_SUFFIX;
+    }
+
+    // Количество записей с момента последнего сжатия
+    synchronized int size() {
+        return this.records;
+    }
+
+    // Запись без отложенной записи: строка передаётся системе сразу и переживает падение процесса,
+    // но на диск сбрасывается только sync() (Library.flush()) или сжатием. Барьер сохранности
+    // в обоих режимах - Library.flush(); fsync на каждую операцию здесь не делается.
+    synchronized void append(String type, String payload) throws IOException {
+        this.openWriter();
+        this.writer.write(record(type, payload));
+        this.writer.newLine();
+        this.writer.flush();
+        this.records++;
+    }
+
+    // Групповая запись: пачка готовых строк "ТИП;данные" одной записью и одним сбросом на диск
+    synchronized void appendAll(List<String> batch) throws IOException {
+        if (batch.isEmpty()) return;
+        this.openWriter();
+        for (String line : batch) {
+            this.writer.write(line);
+            this.writer.newLine();
+        }
+        this.writer.flush();
+        this.output.getChannel().force(false);
+        this.records += batch.size();
+    }
+
+    // Сброс записанного журнала на диск
+    synchronized void sync() throws IOException {
+        if (this.writer == null) return;
+        this.writer.flush();
+        this.output.getChannel().force(false);
+    }
+
+    static String record(String type, String payload) {
+        return type + ";" + payload;
+    }
+
+    // Данные записи из полей с экранированием
+    static String payload(Object... fields) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                result.append(';');
+            }
+            String field = String.valueOf(fields[i]);
+            for (int j = 0; j < field.length(); j++) {
+                char c = field.charAt(j);
+                switch (c) {
+                    case ';', '\\' -> result.append('\\').append(c);
+                    case '\n' -> result.append("\\n");
+                    case '\r' -> result.append("\\r");
+                    default -> result.append(c);
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    // Поля данных записи, обратное payload(). Записи без экранирования читаются как раньше.
+    static List<String> fields(String payload) {
+        List<String> result = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < payload.length(); i++) {
+            char c = payload.charAt(i);
+            if (c == ';') {
+                result.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < payload.length()) {
+                char next = payload.charAt(++i);
+                field.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                field.append(c);
+            }
+        }
+        result.add(field.toString());
+        return result;
+    }
+
+    private void openWriter() throws IOException {
+        if (this.writer == null) {
+            this.output = new FileOutputStream(this.journalFile, true);
+            this.writer = new BufferedWriter(new OutputStreamWriter(this.output));
+        }
+    }
+
+    // Повторное применение всех записей журнала, включая часть, отложенную незавершённой контрольной точкой
+    synchronized void replay(BiConsumer<String, String> handler) throws IOException {
+        this.records = 0;
+        this.replayFile(new File(this.previousFile), handler);
+        this.replayFile(new File(this.journalFile), handler);
+    }
+
+    private void replayFile(File file, BiConsumer<String, String> handler) throws IOException {
+        if (!file.exists()) return;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                int separator = line.indexOf(';');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Некорректная запись журнала: " + line);
+                }
+                handler.accept(line.substring(0, separator), line.substring(separator + 1));
+                this.records++;
+            }
+        }
+    }
+
+    // Начало контрольной точки: текущие записи откладываются в journal.prev, новые пишутся
+    // в пустой журнал. Отложенные записи удаляются dropPrevious() после записи снимка,
+    // до этого они проигрываются при загрузке вместе с журналом.
+    synchronized void rotate() throws IOException {
+        this.close();
+        Path current = Path.of(this.journalFile);
+        Path previous = Path.of(this.previousFile);
+        if (Files.exists(current)) {
+            if (Files.exists(previous)) {
+                // Предыдущая контрольная точка не завершилась, её записи ещё нужны
+                Files.write(previous, Files.readAllBytes(current), StandardOpenOption.APPEND);
+                Files.delete(current);
+            } else {
+                Files.move(current, previous, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        new FileWriter(this.journalFile, false).close();
+        this.records = 0;
+    }
+
+    synchronized void dropPrevious() throws IOException {
+        Files.deleteIfExists(Path.of(this.previousFile));
+    }
+
+    synchronized void close() throws IOException {
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+            this.output = null;
+        }
+    }
+}
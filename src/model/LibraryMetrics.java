@@ -0,0 +1,96 @@
+package model;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Счётчики операций библиотеки: количество вызовов, ошибки по типу исключения и гистограммы
+// задержек. Доступны текстом через dump() и по JMX после register().
+public class LibraryMetrics implements LibraryMetricsMBean {
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    // Счётчики операции создаются один раз, библиотека хранит их в полях
+    OperationMetrics operation(String name) {
+        return this.operations.computeIfAbsent(name, OperationMetrics::new);
+    }
+
+    // Регистрация в JMX как model:type=LibraryMetrics,name=<name>. Повторная регистрация
+    // под тем же именем заменяет прежний объект.
+    public void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("model:type=LibraryMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public String[] getOperations() {
+        return this.operations.keySet().stream().sorted().toArray(String[]::new);
+    }
+
+    @Override
+    public long getCount(String operation) {
+        return this.find(operation).count();
+    }
+
+    @Override
+    public long getErrorCount(String operation) {
+        return this.find(operation).errorCount();
+    }
+
+    @Override
+    public double getMeanMicros(String operation) {
+        return this.find(operation).latencies().mean() / 1000.0;
+    }
+
+    @Override
+    public double getPercentileMicros(String operation, double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Доля должна быть от 0 до 1.");
+        }
+        return this.find(operation).latencies().percentile(fraction) / 1000.0;
+    }
+
+    // Таблица по всем операциям, под каждой - ошибки по типу исключения
+    @Override
+    public String dump() {
+        StringBuilder result = new StringBuilder(String.format("%-16s %10s %8s %11s %11s %11s %11s%n",
+                "операция", "вызовов", "ошибок", "сред. мкс", "p50 мкс", "p99 мкс", "p99.9 мкс"));
+        for (String name : this.getOperations()) {
+            OperationMetrics metrics = this.operations.get(name);
+            LatencyHistogram latencies = metrics.latencies();
+            result.append(String.format(Locale.ROOT, "%-16s %10d %8d %11.1f %11.1f %11.1f %11.1f%n",
+                    name, metrics.count(), metrics.errorCount(),
+                    latencies.mean() / 1000.0,
+                    latencies.percentile(0.5) / 1000.0,
+                    latencies.percentile(0.99) / 1000.0,
+                    latencies.percentile(0.999) / 1000.0));
+            metrics.errorsByType().forEach((type, count) ->
+                    result.append(String.format("    %s: %d%n", type, count)));
+        }
+        return result.toString();
+    }
+
+    @Override
+    public void reset() {
+        this.operations.values().forEach(OperationMetrics::reset);
+    }
+
+    private OperationMetrics find(String operation) {
+        OperationMetrics metrics = this.operations.get(operation);
+        if (metrics == null) {
+            throw new IllegalArgumentException("Операция " + operation + " не найдена.");
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,19 @@
+package model;
+
+// Управляющий интерфейс JMX для счётчиков операций библиотеки.
+// Задержки - в микросекундах, fraction - доля от 0 до 1 (0.99 - 99-й перцентиль).
+public interface LibraryMetricsMBean {
+    String[] getOperations();
+
+    long getCount(String operation);
+
+    long getErrorCount(String operation);
+
+    double getMeanMicros(String operation);
+
+    double getPercentileMicros(String operation, double fraction);
+
+    String dump();
+
+    void reset();
+}
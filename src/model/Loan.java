@@ -9,7 +9,9 @@ public class Loan {
     private final int bookId;
     private final int userId;
     private final LocalDate loanDate;
-    private LocalDate returnDate = null;
+    // День, после которого выдача считается просроченной, как номер дня от 1970-01-01
+    private final int dueDay;
+    private volatile LocalDate returnDate = null;
 
     private Library library;
 
@@ -18,10 +20,14 @@ public class Loan {
 
     Loan(int id, int bookId, int userId, LocalDate loanDate, LocalDate returnDate) {
         this.id = id;
-        counter.accumulateAndGet(this.id, Math::max);
+        // Выдачи из истории собираются заново при каждом чтении, счётчик меняется только при новом id
+        if (id > counter.get()) {
+            counter.accumulateAndGet(id, Math::max);
+        }
         this.bookId = bookId;
         this.userId = userId;
         this.loanDate = loanDate;
+        this.dueDay = Math.toIntExact(loanDate.toEpochDay() + EXPIRED_DAYS_LIMIT);
         this.returnDate = returnDate;
     }
 
@@ -58,15 +64,26 @@ public class Loan {
         return counter.incrementAndGet();
     }
 
+    // Id, занятые выдачами, которые не собираются в объекты при загрузке
+    static void reserveIds(int maxId) {
+        counter.accumulateAndGet(maxId, Math::max);
+    }
+
     public void setLibrary(Library library) {
         this.library = library;
     }
 
+    int getDueDay() {
+        return this.dueDay;
+    }
+
+    // Текущий день берётся из часов библиотеки, у выдачи без библиотеки - из системных
     public boolean isExpired() {
         if (this.returnDate != null) {
             return false;
         }
-        return loanDate.plusDays(EXPIRED_DAYS_LIMIT).isBefore(LocalDate.now());
+        DayClock clock = this.library != null ? this.library.getDayClock() : DayClock.system();
+        return this.dueDay < clock.today();
     }
 
     public boolean isActive() {
@@ -0,0 +1,280 @@
+package model;
+
+import java.time.LocalDate;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+// История закрытых выдач в столбцах: id, книга, читатель, день выдачи и день возврата
+// хранятся в массивах int, по строке на выдачу. Закрытая выдача больше не меняется, поэтому
+// объект Loan с двумя LocalDate ей не нужен: он собирается из строки только по запросу.
+// Истории книги и читателя связаны в списки прямо в столбцах: строка хранит номер предыдущей
+// строки той же книги и того же читателя. Столбцы растут блоками, уже записанные строки
+// не копируются. Id выдач, книг и читателей неотрицательны и выдаются подряд, поэтому
+// индексы по ним - тоже блочные массивы, а не словари.
+class LoanHistory implements ClosedLoans {
+    // Строк, собираемых в объекты за одну блокировку при обходе
+    private static final int BLOCK_SIZE = 1 << 14;
+    private static final int NONE = IntColumn.NONE;
+
+    private final Library library;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final IntColumn ids = new IntColumn();
+    private final IntColumn bookIds = new IntColumn();
+    private final IntColumn userIds = new IntColumn();
+    private final IntColumn loanDays = new IntColumn();
+    private final IntColumn returnDays = new IntColumn();
+    private final IntColumn previousByBook = new IntColumn();
+    private final IntColumn previousByUser = new IntColumn();
+
+    // Строка по id выдачи и последняя строка книги и читателя
+    private final IntColumn rowById = new IntColumn();
+    private final IntColumn lastByBook = new IntColumn();
+    private final IntColumn lastByUser = new IntColumn();
+
+    private int size;
+    private int maxId = Integer.MIN_VALUE;
+
+    LoanHistory(Library library) {
+        this.library = library;
+    }
+
+    // Перенос закрытой выдачи в историю
+    @Override
+    public void add(Loan loan) {
+        if (loan.isActive()) {
+            throw new IllegalArgumentException("Выдача с id=" + loan.getId() + " ещё не закрыта.");
+        }
+        checkId(loan.getId());
+        checkId(loan.getBookId());
+        checkId(loan.getUserId());
+        this.lock.writeLock().lock();
+        try {
+            if (this.rowById.get(loan.getId()) != NONE) return;
+            int row = this.size;
+            this.ids.set(row, loan.getId());
+            this.bookIds.set(row, loan.getBookId());
+            this.userIds.set(row, loan.getUserId());
+            this.loanDays.set(row, (int) loan.getLoanDate().toEpochDay());
+            this.returnDays.set(row, (int) loan.getReturnDate().toEpochDay());
+            this.previousByBook.set(row, this.lastByBook.get(loan.getBookId()));
+            this.previousByUser.set(row, this.lastByUser.get(loan.getUserId()));
+            this.lastByBook.set(loan.getBookId(), row);
+            this.lastByUser.set(loan.getUserId(), row);
+            this.rowById.set(loan.getId(), row);
+            this.maxId = Math.max(this.maxId, loan.getId());
+            this.size++;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private static void checkId(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Некорректный id в истории выдач: " + id);
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Наибольший id в истории, Integer.MIN_VALUE для пустой истории
+    @Override
+    public int maxId() {
+        this.lock.readLock().lock();
+        try {
+            return this.maxId;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(int id) {
+        if (id < 0) return false;
+        this.lock.readLock().lock();
+        try {
+            return this.rowById.get(id) != NONE;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Закрытая выдача по id или null. Каждый вызов возвращает новую копию.
+    @Override
+    public Loan get(int id) {
+        if (id < 0) return null;
+        this.lock.readLock().lock();
+        try {
+            int row = this.rowById.get(id);
+            return row != NONE ? this.loan(row) : null;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Закрытые выдачи книги, последние закрытые первыми
+    @Override
+    public List<Loan> byBook(int bookId) {
+        if (bookId < 0) return List.of();
+        this.lock.readLock().lock();
+        try {
+            List<Loan> result = new ArrayList<>();
+            for (int row = this.lastByBook.get(bookId); row != NONE; row = this.previousByBook.get(row)) {
+                result.add(this.loan(row));
+            }
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Закрытые выдачи читателя, последние закрытые первыми
+    @Override
+    public List<Loan> byUser(int userId) {
+        if (userId < 0) return List.of();
+        this.lock.readLock().lock();
+        try {
+            List<Loan> result = new ArrayList<>();
+            for (int row = this.lastByUser.get(userId); row != NONE; row = this.previousByUser.get(row)) {
+                result.add(this.loan(row));
+            }
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Id закрытых выдач книги и читателя без сборки объектов, для постраничного чтения
+    @Override
+    public int[] idsByBook(int bookId) {
+        return this.chainIds(bookId, this.lastByBook, this.previousByBook);
+    }
+
+    @Override
+    public int[] idsByUser(int userId) {
+        return this.chainIds(userId, this.lastByUser, this.previousByUser);
+    }
+
+    private int[] chainIds(int key, IntColumn last, IntColumn previous) {
+        if (key < 0) return new int[0];
+        this.lock.readLock().lock();
+        try {
+            int[] result = new int[16];
+            int count = 0;
+            for (int row = last.get(key); row != NONE; row = previous.get(row)) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = this.ids.get(row);
+            }
+            return Arrays.copyOf(result, count);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Все закрытые выдачи в порядке закрытия. Обход слабо согласован: строки собираются
+    // в объекты блоками под блокировкой, добавленные во время обхода строки могут не попасть в него.
+    @Override
+    public Collection<Loan> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Loan> iterator() {
+                return new RowIterator();
+            }
+
+            @Override
+            public int size() {
+                return LoanHistory.this.size();
+            }
+        };
+    }
+
+    @Override
+    public void forEachId(IntConsumer action) {
+        this.lock.readLock().lock();
+        try {
+            for (int row = 0; row < this.size; row++) {
+                action.accept(this.ids.get(row));
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    void clear() {
+        this.lock.writeLock().lock();
+        try {
+            for (IntColumn column : List.of(this.ids, this.bookIds, this.userIds, this.loanDays, this.returnDays,
+                    this.previousByBook, this.previousByUser, this.rowById, this.lastByBook, this.lastByUser)) {
+                column.clear();
+            }
+            this.size = 0;
+            this.maxId = Integer.MIN_VALUE;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private Loan loan(int row) {
+        Loan loan = new Loan(
+                this.ids.get(row),
+                this.bookIds.get(row),
+                this.userIds.get(row),
+                LocalDate.ofEpochDay(this.loanDays.get(row)),
+                LocalDate.ofEpochDay(this.returnDays.get(row)));
+        loan.setLibrary(this.library);
+        return loan;
+    }
+
+    private final class RowIterator implements Iterator<Loan> {
+        private final int end = LoanHistory.this.size();
+        private List<Loan> block = List.of();
+        private int next;
+        private int position;
+
+        @Override
+        public boolean hasNext() {
+            return this.position < this.block.size() || this.next < this.end;
+        }
+
+        @Override
+        public Loan next() {
+            if (this.position >= this.block.size()) {
+                if (this.next >= this.end) {
+                    throw new NoSuchElementException();
+                }
+                int to = Math.min(this.end, this.next + BLOCK_SIZE);
+                List<Loan> block = new ArrayList<>(to - this.next);
+                LoanHistory.this.lock.readLock().lock();
+                try {
+                    for (int row = this.next; row < to; row++) {
+                        block.add(LoanHistory.this.loan(row));
+                    }
+                } finally {
+                    LoanHistory.this.lock.readLock().unlock();
+                }
+                this.block = block;
+                this.next = to;
+                this.position = 0;
+            }
+            return this.block.get(this.position++);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package model;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+// Хранилище выдач в отображаемом в память файле с записями фиксированной длины.
+// Id выдач выдаются подряд, поэтому выдача с id N лежит в записи N - 1 и индекс по id не нужен,
+// пропущенные id остаются пустыми записями. При возврате на месте меняется только дата возврата,
+// поэтому каждая операция пишет несколько байт независимо от размера истории.
+// Выдачи одной книги и одного читателя связаны в списки по убыванию id прямо в файле, в памяти
+// хранятся только начала списков - по числу книг и читателей, а не выдач. При открытии в память
+// попадают только активные выдачи, закрытые собираются в объекты при чтении.
+// Заголовок: магическое число, версия, количество записей (наибольший id).
+// Запись: id, id книги, id читателя, день выдачи, день возврата (номера дней от 1970-01-01),
+// номер записи предыдущей выдачи той же книги и того же читателя.
+class MappedLoanStore implements ClosedLoans {
+    static final int MAGIC = 0x4C424D4C; // "LBML"
+    static final short VERSION = 2;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+    private static final int RECORD_SIZE = 28;
+    private static final int BOOK_OFFSET = 4;
+    private static final int USER_OFFSET = 8;
+    private static final int LOAN_DAY_OFFSET = 12;
+    private static final int RETURN_DAY_OFFSET = 16;
+    private static final int PREVIOUS_BY_BOOK_OFFSET = 20;
+    private static final int PREVIOUS_BY_USER_OFFSET = 24;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int NONE = IntColumn.NONE;
+    private static final int INITIAL_CAPACITY = 1024;
+    // Одно отображение ограничено 2 ГБ, это около 76 млн выдач
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+    // Записей, собираемых в объекты за одну блокировку при обходе
+    private static final int BLOCK_SIZE = 1 << 14;
+    // Версия 1: записи по 20 байт в порядке добавления, без списков
+    private static final int VERSION_1_RECORD_SIZE = 20;
+
+    private final FileChannel channel;
+    private final Library library;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private int closed;
+    // Запись с наибольшим id для книги и для читателя
+    private final IntColumn lastByBook = new IntColumn();
+    private final IntColumn lastByUser = new IntColumn();
+
+    private MappedLoanStore(FileChannel channel, Library library) {
+        this.channel = channel;
+        this.library = library;
+    }
+
+    static boolean exists(String path) {
+        return Files.exists(Path.of(path));
+    }
+
+    // Открытие хранилища. Активные выдачи передаются в activeLoans, закрытые остаются в файле.
+    static MappedLoanStore open(String path, Library library, Consumer<Loan> activeLoans) throws IOException {
+        boolean created = !exists(path);
+        FileChannel channel = FileChannel.open(Path.of(path),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedLoanStore store = new MappedLoanStore(channel, library);
+        try {
+            if (created || channel.size() == 0) {
+                store.remap(INITIAL_CAPACITY);
+                store.buffer.putInt(0, MAGIC);
+                store.buffer.putShort(4, VERSION);
+                store.buffer.putInt(COUNT_OFFSET, 0);
+                return store;
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("Файл " + path + " не является хранилищем выдач.");
+            }
+            short version = header.getShort(4);
+            if (version == 1) {
+                channel.close();
+                migrateVersion1(Path.of(path), library);
+                return open(path, library, activeLoans);
+            }
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Неподдерживаемая версия формата " + version + " в файле " + path);
+            }
+            store.remap((int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE));
+            store.count = store.buffer.getInt(COUNT_OFFSET);
+            store.scan(activeLoans);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return store;
+    }
+
+    // Начала списков книг и читателей и активные выдачи. Записи обходятся по возрастанию id,
+    // поэтому последняя встреченная запись книги или читателя - начало его списка.
+    private void scan(Consumer<Loan> activeLoans) {
+        for (int slot = 0; slot < this.count; slot++) {
+            if (!this.occupied(slot)) continue;
+            int offset = offset(slot);
+            this.lastByBook.set(this.buffer.getInt(offset + BOOK_OFFSET), slot);
+            this.lastByUser.set(this.buffer.getInt(offset + USER_OFFSET), slot);
+            if (this.buffer.getInt(offset + RETURN_DAY_OFFSET) == NO_DATE) {
+                activeLoans.accept(this.loan(slot));
+            } else {
+                this.closed++;
+            }
+        }
+        // Закрытые выдачи не собираются в объекты, их id резервируются без них
+        Loan.reserveIds(this.count);
+    }
+
+    // Перенос файла версии 1 в текущий формат через временный файл
+    private static void migrateVersion1(Path file, Library library) throws IOException {
+        Path migrated = Path.of(file + ".tmp");
+        Files.deleteIfExists(migrated);
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer records = source.map(FileChannel.MapMode.READ_ONLY, 0, source.size());
+            int count = records.getInt(COUNT_OFFSET);
+            MappedLoanStore store = open(migrated.toString(), library, loan -> {
+            });
+            try {
+                for (int slot = 0; slot < count; slot++) {
+                    int offset = HEADER_SIZE + slot * VERSION_1_RECORD_SIZE;
+                    int returnDay = records.getInt(offset + RETURN_DAY_OFFSET);
+                    store.append(new Loan(
+                            records.getInt(offset),
+                            records.getInt(offset + BOOK_OFFSET),
+                            records.getInt(offset + USER_OFFSET),
+                            LocalDate.ofEpochDay(records.getInt(offset + LOAN_DAY_OFFSET)),
+                            returnDay != NO_DATE ? LocalDate.ofEpochDay(returnDay) : null));
+                }
+            } finally {
+                store.close();
+            }
+        }
+        Files.move(migrated, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Запись новой выдачи или новой даты возврата уже записанной. Id записи пишется последним:
+    // запись, прерванная сбоем, остаётся пустой.
+    void append(Loan loan) throws IOException {
+        if (loan.getId() <= 0 || loan.getBookId() < 0 || loan.getUserId() < 0) {
+            throw new IllegalArgumentException("Некорректная выдача для хранилища: " + loan.getId());
+        }
+        int slot = loan.getId() - 1;
+        this.lock.writeLock().lock();
+        try {
+            if (this.occupied(slot)) {
+                this.setReturnDay(slot, loan.getReturnDate());
+                return;
+            }
+            if (slot >= this.capacity) {
+                if (slot >= MAX_CAPACITY) {
+                    throw new IllegalStateException("Хранилище выдач заполнено.");
+                }
+                this.remap((int) Math.min(Math.max((long) this.capacity * 2, slot + 1L), MAX_CAPACITY));
+            }
+            int offset = offset(slot);
+            this.buffer.putInt(offset + BOOK_OFFSET, loan.getBookId());
+            this.buffer.putInt(offset + USER_OFFSET, loan.getUserId());
+            this.buffer.putInt(offset + LOAN_DAY_OFFSET, (int) loan.getLoanDate().toEpochDay());
+            this.buffer.putInt(offset + RETURN_DAY_OFFSET, toDay(loan.getReturnDate()));
+            this.link(slot, loan.getBookId(), this.lastByBook, PREVIOUS_BY_BOOK_OFFSET);
+            this.link(slot, loan.getUserId(), this.lastByUser, PREVIOUS_BY_USER_OFFSET);
+            this.buffer.putInt(offset, loan.getId());
+            if (loan.getReturnDate() != null) {
+                this.closed++;
+            }
+            if (slot >= this.count) {
+                this.count = slot + 1;
+                this.buffer.putInt(COUNT_OFFSET, this.count);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // Вставка записи в список книги или читателя с сохранением порядка по убыванию id.
+    // Выдачи добавляются почти всегда по возрастанию id, тогда запись просто становится началом списка.
+    private void link(int slot, int key, IntColumn last, int previousOffset) {
+        int current = last.get(key);
+        if (current == NONE || current < slot) {
+            this.buffer.putInt(offset(slot) + previousOffset, current);
+            last.set(key, slot);
+            return;
+        }
+        int previous;
+        while ((previous = this.buffer.getInt(offset(current) + previousOffset)) != NONE && previous > slot) {
+            current = previous;
+        }
+        this.buffer.putInt(offset(slot) + previousOffset, previous);
+        this.buffer.putInt(offset(current) + previousOffset, slot);
+    }
+
+    private void setReturnDay(int slot, LocalDate returnDate) {
+        int offset = offset(slot) + RETURN_DAY_OFFSET;
+        boolean active = this.buffer.getInt(offset) == NO_DATE;
+        this.buffer.putInt(offset, toDay(returnDate));
+        if (active && returnDate != null) {
+            this.closed++;
+        }
+    }
+
+    @Override
+    public void add(Loan loan) {
+        if (loan.isActive()) {
+            throw new IllegalArgumentException("Выдача с id=" + loan.getId() + " ещё не закрыта.");
+        }
+        try {
+            this.append(loan);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.closed;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int maxId() {
+        this.lock.readLock().lock();
+        try {
+            return this.count > 0 ? this.count : Integer.MIN_VALUE;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(int id) {
+        this.lock.readLock().lock();
+        try {
+            return this.isClosed(id - 1);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Loan get(int id) {
+        this.lock.readLock().lock();
+        try {
+            return this.isClosed(id - 1) ? this.loan(id - 1) : null;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Loan> byBook(int bookId) {
+        return this.chain(bookId, this.lastByBook, PREVIOUS_BY_BOOK_OFFSET, this::loan);
+    }
+
+    @Override
+    public List<Loan> byUser(int userId) {
+        return this.chain(userId, this.lastByUser, PREVIOUS_BY_USER_OFFSET, this::loan);
+    }
+
+    @Override
+    public int[] idsByBook(int bookId) {
+        return toArray(this.chain(bookId, this.lastByBook, PREVIOUS_BY_BOOK_OFFSET, slot -> slot + 1));
+    }
+
+    @Override
+    public int[] idsByUser(int userId) {
+        return toArray(this.chain(userId, this.lastByUser, PREVIOUS_BY_USER_OFFSET, slot -> slot + 1));
+    }
+
+    // Закрытые выдачи из списка книги или читателя. Активные выдачи списка пропускаются.
+    private <T> List<T> chain(int key, IntColumn last, int previousOffset, IntFunction<T> value) {
+        if (key < 0) return List.of();
+        this.lock.readLock().lock();
+        try {
+            List<T> result = new ArrayList<>();
+            for (int slot = last.get(key); slot != NONE; slot = this.buffer.getInt(offset(slot) + previousOffset)) {
+                if (this.isClosed(slot)) {
+                    result.add(value.apply(slot));
+                }
+            }
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    // Закрытые выдачи по возрастанию id. Обход слабо согласован, как и в LoanHistory.
+    @Override
+    public Collection<Loan> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Loan> iterator() {
+                return new SlotIterator();
+            }
+
+            @Override
+            public int size() {
+                return MappedLoanStore.this.size();
+            }
+        };
+    }
+
+    @Override
+    public void forEachId(IntConsumer action) {
+        this.lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < this.count; slot++) {
+                if (this.isClosed(slot)) {
+                    action.accept(slot + 1);
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Сброс изменённых страниц на диск
+    void force() {
+        this.lock.readLock().lock();
+        try {
+            this.buffer.force();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.buffer.force();
+            this.channel.close();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private boolean occupied(int slot) {
+        return slot >= 0 && slot < this.count && this.buffer.getInt(offset(slot)) == slot + 1;
+    }
+
+    private boolean isClosed(int slot) {
+        return this.occupied(slot) && this.buffer.getInt(offset(slot) + RETURN_DAY_OFFSET) != NO_DATE;
+    }
+
+    private Loan loan(int slot) {
+        int offset = offset(slot);
+        int returnDay = this.buffer.getInt(offset + RETURN_DAY_OFFSET);
+        Loan loan = new Loan(
+                this.buffer.getInt(offset),
+                this.buffer.getInt(offset + BOOK_OFFSET),
+                this.buffer.getInt(offset + USER_OFFSET),
+                LocalDate.ofEpochDay(this.buffer.getInt(offset + LOAN_DAY_OFFSET)),
+                returnDay != NO_DATE ? LocalDate.ofEpochDay(returnDay) : null);
+        loan.setLibrary(this.library);
+        return loan;
+    }
+
+    // Файл растёт удвоением, старое отображение освобождается сборщиком мусора
+    private void remap(int capacity) throws IOException {
+        this.capacity = Math.min(Math.max(capacity, INITIAL_CAPACITY), MAX_CAPACITY);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, offset(this.capacity));
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static int toDay(LocalDate date) {
+        return date != null ? (int) date.toEpochDay() : NO_DATE;
+    }
+
+    private final class SlotIterator implements Iterator<Loan> {
+        private final int end = MappedLoanStore.this.maxId();
+        private List<Loan> block = List.of();
+        private int next;
+        private int position;
+
+        @Override
+        public boolean hasNext() {
+            while (this.position >= this.block.size() && this.next < this.end) {
+                this.readBlock();
+            }
+            return this.position < this.block.size();
+        }
+
+        @Override
+        public Loan next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.block.get(this.position++);
+        }
+
+        private void readBlock() {
+            int to = Math.min(this.end, this.next + BLOCK_SIZE);
+            List<Loan> block = new ArrayList<>();
+            MappedLoanStore.this.lock.readLock().lock();
+            try {
+                for (int slot = this.next; slot < to; slot++) {
+                    if (MappedLoanStore.this.isClosed(slot)) {
+                        block.add(MappedLoanStore.this.loan(slot));
+                    }
+                }
+            } finally {
+                MappedLoanStore.this.lock.readLock().unlock();
+            }
+            this.block = block;
+            this.next = to;
+            this.position = 0;
+        }
+    }
+}
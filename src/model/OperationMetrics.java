@@ -0,0 +1,60 @@
+package model;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Счётчики одной операции библиотеки: успешные вызовы с гистограммой задержек
+// и ошибки по типу исключения
+class OperationMetrics {
+    private final String name;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    // start - значение System.nanoTime() в начале операции
+    void success(long start) {
+        this.latencies.record(System.nanoTime() - start);
+    }
+
+    void failure(long start, Throwable error) {
+        this.latencies.record(System.nanoTime() - start);
+        this.errors.computeIfAbsent(error.getClass().getSimpleName(), type -> new LongAdder()).increment();
+    }
+
+    // Все вызовы, включая завершившиеся ошибкой
+    long count() {
+        return this.latencies.count();
+    }
+
+    long errorCount() {
+        long count = 0;
+        for (LongAdder adder : this.errors.values()) {
+            count += adder.sum();
+        }
+        return count;
+    }
+
+    Map<String, Long> errorsByType() {
+        Map<String, Long> result = new TreeMap<>();
+        this.errors.forEach((type, adder) -> result.put(type, adder.sum()));
+        return result;
+    }
+
+    LatencyHistogram latencies() {
+        return this.latencies;
+    }
+
+    void reset() {
+        this.latencies.reset();
+        this.errors.clear();
+    }
+}
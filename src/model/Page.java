@@ -0,0 +1,16 @@
+package model;
+
+import java.util.List;
+
+// Страница выборки в порядке возрастания id. Первая страница запрашивается с курсором FIRST,
+// следующая - с курсором nextCursor предыдущей. Курсор - id, после которого продолжается
+// выборка, поэтому записи, добавленные между запросами, не сдвигают страницы.
+public record Page<T>(List<T> items, int nextCursor) {
+    public static final int FIRST = 0;
+    // Следующей страницы нет
+    public static final int END = -1;
+
+    public boolean hasNext() {
+        return this.nextCursor != END;
+    }
+}
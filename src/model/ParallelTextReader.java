@@ -0,0 +1,50 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Чтение текстового файла хранилища пачками строк. Строки пачки разбираются параллельно
+// в общем ForkJoinPool (пачка делится на диапазоны строк), результаты передаются дальше
+// в порядке файла. Размер пачки ограничивает память на разбор большого файла.
+final class ParallelTextReader {
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private ParallelTextReader() {
+    }
+
+    // Возвращает количество прочитанных записей; 0, если файла нет
+    static <T> int read(String path, Function<String, T> parser, Consumer<T> consumer) throws IOException {
+        File file = new File(path);
+        if (!file.exists()) return 0;
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file), BUFFER_SIZE)) {
+            List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunk.add(line);
+                if (chunk.size() == CHUNK_SIZE) {
+                    count += parseChunk(chunk, parser, consumer);
+                    chunk.clear();
+                }
+            }
+            count += parseChunk(chunk, parser, consumer);
+        }
+        return count;
+    }
+
+    private static <T> int parseChunk(List<String> chunk, Function<String, T> parser, Consumer<T> consumer) {
+        List<T> parsed = chunk.size() < PARALLEL_THRESHOLD
+                ? chunk.stream().map(parser).toList()
+                : chunk.parallelStream().map(parser).toList();
+        parsed.forEach(consumer);
+        return parsed.size();
+    }
+}
@@ -0,0 +1,102 @@
+package model;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// Атомарная запись файлов хранилища.
+// Каждый файл сначала пишется во временный "имя.tmp" и сбрасывается на диск.
+// Для нескольких файлов затем атомарно создаётся маркер checkpoint со списком имён,
+// после чего временные файлы переименовываются в рабочие и маркер удаляется.
+// При сбое до маркера рабочие файлы остаются прежними, после маркера переименование
+// доводится до конца при следующем запуске, поэтому файлы всегда согласованы между собой.
+final class StorageCheckpoint {
+    static final String MARKER = "checkpoint";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private StorageCheckpoint() {
+    }
+
+    // Запись набора файлов (имя в каталоге -> содержимое) одной контрольной точкой
+    static void write(Path dir, Map<String, byte[]> files) throws IOException {
+        if (files.isEmpty()) return;
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            writeForced(dir.resolve(file.getKey() + TMP_SUFFIX), file.getValue());
+        }
+        if (files.size() == 1) {
+            String name = files.keySet().iterator().next();
+            moveAtomically(dir.resolve(name + TMP_SUFFIX), dir.resolve(name));
+            forceDirectory(dir.resolve(name).getParent());
+            return;
+        }
+
+        Path marker = dir.resolve(MARKER);
+        writeForced(dir.resolve(MARKER + TMP_SUFFIX),
+                String.join("\n", files.keySet()).getBytes(StandardCharsets.UTF_8));
+        moveAtomically(dir.resolve(MARKER + TMP_SUFFIX), marker);
+        forceDirectory(dir);
+        Set<Path> directories = new HashSet<>();
+        for (String name : files.keySet()) {
+            Path target = dir.resolve(name);
+            moveAtomically(dir.resolve(name + TMP_SUFFIX), target);
+            directories.add(target.getParent());
+        }
+        for (Path directory : directories) {
+            forceDirectory(directory);
+        }
+        Files.delete(marker);
+    }
+
+    // Восстановление после сбоя: завершение начатой контрольной точки или удаление
+    // временных файлов незавершённой записи в каталоге и его подкаталогах сегментов
+    static void recover(Path dir) throws IOException {
+        Path marker = dir.resolve(MARKER);
+        if (Files.exists(marker)) {
+            for (String name : Files.readAllLines(marker, StandardCharsets.UTF_8)) {
+                Path tmp = dir.resolve(name + TMP_SUFFIX);
+                if (!name.isEmpty() && Files.exists(tmp)) {
+                    moveAtomically(tmp, dir.resolve(name));
+                }
+            }
+            forceDirectory(dir);
+            Files.delete(marker);
+        }
+        if (!Files.isDirectory(dir)) return;
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static void writeForced(Path path, byte[] content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(path.toFile())) {
+            out.write(content);
+            out.getChannel().force(true);
+        }
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Сброс записи каталога, чтобы переименование пережило сбой питания.
+    // Не все системы позволяют открыть каталог, тогда шаг пропускается.
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package model;
+
+import java.io.IOException;
+
+// Перевод хранилища библиотеки из одного формата в другой.
+// Запуск: StorageConverter [каталог] [исходный формат] [новый формат], по умолчанию src/storage TEXT BINARY
+public final class StorageConverter {
+    private StorageConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String storageDir = args.length > 0 ? args[0] : "src/storage";
+        StorageFormat from = args.length > 1 ? StorageFormat.valueOf(args[1].toUpperCase()) : StorageFormat.TEXT;
+        StorageFormat to = args.length > 2 ? StorageFormat.valueOf(args[2].toUpperCase()) : StorageFormat.BINARY;
+        convert(storageDir, from, to);
+        System.out.println("Хранилище " + storageDir + " переведено из " + from + " в " + to + ".");
+    }
+
+    // Загрузка в исходном формате вместе с журналом и сохранение полного снимка в новом
+    public static void convert(String storageDir, StorageFormat from, StorageFormat to) throws IOException {
+        Library library = new Library(storageDir);
+        library.setStorageFormat(from);
+        library.setJournalEnabled(true);
+        library.initLibrary();
+        library.setStorageFormat(to);
+        library.compactJournal();
+    }
+}
@@ -0,0 +1,12 @@
+package model;
+
+// Формат файлов хранилища библиотеки
+public enum StorageFormat {
+    // Текстовые строки "поле;поле;..." в файлах books, users, loans
+    TEXT,
+    // Двоичные записи с заголовком в файлах books.bin, users.bin, loans.bin
+    BINARY,
+    // Текстовые строки, разбитые по диапазонам id на сегменты books.seg/N, users.seg/N, loans.seg/N.
+    // Сохранение перезаписывает только сегменты с изменёнными записями.
+    SEGMENTED
+}
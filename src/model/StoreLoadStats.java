@@ -0,0 +1,9 @@
+package model;
+
+// Время загрузки одного хранилища при запуске библиотеки
+public record StoreLoadStats(String store, int records, long millis) {
+    @Override
+    public String toString() {
+        return String.format("%s: %d записей за %d мс", this.store, this.records, this.millis);
+    }
+}
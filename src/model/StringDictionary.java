@@ -0,0 +1,44 @@
+package model;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Словарь повторяющихся строк: одинаковые значения из разных записей хранятся одним объектом
+// вместе с формой в нижнем регистре, вычисленной один раз. Формы в нижнем регистре тоже
+// берутся из словаря, поэтому "Пушкин" и "ПУШКИН" делят одну строку "пушкин".
+// Записи удаляются только все сразу (clear): словарь рассчитан на поля с небольшим числом
+// различных значений и живёт не дольше своего владельца.
+final class StringDictionary {
+    // Строка и её форма в нижнем регистре
+    record Entry(String value, String folded) {
+        // Запись вне словаря
+        static Entry of(String value) {
+            return new Entry(value, fold(value));
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    Entry intern(String value) {
+        Entry entry = this.entries.get(value);
+        if (entry != null) return entry;
+        String lower = fold(value);
+        String folded = lower == value ? value : this.intern(lower).value();
+        Entry created = new Entry(value, folded);
+        Entry existing = this.entries.putIfAbsent(value, created);
+        return existing != null ? existing : created;
+    }
+
+    // Строка в нижнем регистре, сама строка, если она уже в нижнем регистре
+    static String fold(String value) {
+        String lower = value.toLowerCase();
+        return lower.equals(value) ? value : lower;
+    }
+
+    int size() {
+        return this.entries.size();
+    }
+
+    void clear() {
+        this.entries.clear();
+    }
+}
@@ -40,21 +40,21 @@ public class User {
         return counter.incrementAndGet();
     }
 
+    // Ключ для поиска дубликатов, согласованный с equals()
+    String normalizedKey() {
+        return this.name.toLowerCase() + "\n" + this.email.toLowerCase();
+    }
+
     public void setLibrary(Library library) {
         this.library = library;
     }
 
     public List<Loan> getUserLoans() {
-        return this.library.getLoans().values().stream()
-                .filter(loan -> loan.getUserId() == this.id)
-                .toList();
+        return this.library.getUserLoans(this.id);
     }
 
     public List<Loan> getCurrentLoans() {
-        return this.getUserLoans().stream()
-                .filter(Loan::isActive)
-                .sorted((a, b) -> b.getLoanDate().compareTo(a.getLoanDate()))
-                .toList();
+        return this.library.getCurrentLoans(this.id);
     }
 
     @Override
@@ -0,0 +1,71 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Активные выдачи одного читателя в порядке выдачи, закрытые хранятся в истории библиотеки.
+// Обновляется при выдаче и возврате. Неизменяемые копии активных выдач и всей истории
+// строятся при первом запросе после изменения и отдаются повторно, пока читатель ничего
+// не берёт и не возвращает.
+class UserLoans {
+    private final List<Loan> active = new ArrayList<>();
+    private List<Loan> activeView;
+    private List<Loan> historyView;
+
+    synchronized void add(Loan loan) {
+        this.active.add(loan);
+        this.activeView = null;
+        this.historyView = null;
+    }
+
+    // Закрытая выдача попала в историю, минуя активные (загрузка, журнал)
+    synchronized void closedAdded() {
+        this.historyView = null;
+    }
+
+    // Поиск по ссылке: equals() выдачи зависит от даты возврата, которая уже изменилась
+    synchronized void close(Loan loan) {
+        for (int i = 0; i < this.active.size(); i++) {
+            if (this.active.get(i) == loan) {
+                this.active.remove(i);
+                this.activeView = null;
+                this.historyView = null;
+                return;
+            }
+        }
+    }
+
+    synchronized int activeCount() {
+        return this.active.size();
+    }
+
+    synchronized Loan findActive(int bookId) {
+        for (Loan loan : this.active) {
+            if (loan.getBookId() == bookId) {
+                return loan;
+            }
+        }
+        return null;
+    }
+
+    // Активные выдачи, новые первыми
+    synchronized List<Loan> active() {
+        if (this.activeView == null) {
+            List<Loan> sorted = new ArrayList<>(this.active);
+            sorted.sort(Comparator.comparing(Loan::getLoanDate).reversed());
+            this.activeView = List.copyOf(sorted);
+        }
+        return this.activeView;
+    }
+
+    // Все выдачи читателя. Копия строится под блокировкой читателя: возврат закрывает выдачу
+    // через close(), поэтому не может проскочить между построением и сохранением копии.
+    synchronized List<Loan> history(Supplier<List<Loan>> build) {
+        if (this.historyView == null) {
+            this.historyView = build.get();
+        }
+        return this.historyView;
+    }
+}
@@ -0,0 +1,52 @@
+package model;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Индекс читателей: точный поиск по e-mail и поиск по началу имени, фамилии или e-mail
+class UserSearchIndex {
+    private final Map<String, Integer> emails = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Set<Integer>> prefixes = new ConcurrentSkipListMap<>();
+
+    void add(User user) {
+        String email = user.getEmail().toLowerCase();
+        this.emails.putIfAbsent(email, user.getId());
+        this.addKey(email, user.getId());
+        String name = user.getName().strip().toLowerCase();
+        this.addKey(name, user.getId());
+        for (String word : name.split("\\s+")) {
+            this.addKey(word, user.getId());
+        }
+    }
+
+    void clear() {
+        this.emails.clear();
+        this.prefixes.clear();
+    }
+
+    Integer findByEmail(String email) {
+        return this.emails.get(email.strip().toLowerCase());
+    }
+
+    // Не больше limit идентификаторов, у которых имя, одно из слов имени или e-mail начинается с prefix
+    Set<Integer> findByPrefix(String prefix, int limit) {
+        String normalized = prefix.strip().toLowerCase();
+        Set<Integer> result = new LinkedHashSet<>();
+        for (Map.Entry<String, Set<Integer>> entry : this.prefixes.tailMap(normalized, true).entrySet()) {
+            if (!entry.getKey().startsWith(normalized)) break;
+            for (int id : entry.getValue()) {
+                result.add(id);
+                if (result.size() >= limit) return result;
+            }
+        }
+        return result;
+    }
+
+    private void addKey(String key, int userId) {
+        if (key.isEmpty()) return;
+        this.prefixes.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(userId);
+    }
+}
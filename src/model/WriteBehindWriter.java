@@ -0,0 +1,109 @@
+package model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Отложенная запись изменений библиотеки фоновым потоком.
+// Записи журнала копятся в очереди и сбрасываются пачкой с одним fsync (групповая фиксация),
+// в режиме снимков изменённые файлы перезаписываются одной контрольной точкой за интервал.
+class WriteBehindWriter {
+    private final Library library;
+    private final ScheduledExecutorService executor;
+
+    private final Queue<String> pendingRecords = new ConcurrentLinkedQueue<>();
+    // Записи, взятые из очереди, но ещё не записанные в журнал. Используются только потоком записи:
+    // при ошибке остаются здесь и пишутся следующей попыткой. Если пачка успела записаться
+    // частично, часть записей попадёт в журнал дважды - повторное применение записи безопасно.
+    private final List<String> unwritten = new ArrayList<>();
+    // Первая ошибка фоновой записи после последнего flush(). Сообщается следующим flush() или
+    // close(), даже если повторная попытка уже записала данные: сбой диска не проходит незамеченным.
+    // Каждый сбой также учитывается в метриках операции writeBehind.
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private final OperationMetrics metrics;
+
+    WriteBehindWriter(Library library, long flushIntervalMillis) {
+        this.library = library;
+        this.metrics = library.getMetrics().operation("writeBehind");
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::writePendingQuietly,
+                flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void enqueue(String type, String payload) {
+        this.pendingRecords.add(LibraryJournal.record(type, payload));
+    }
+
+    // Барьер сохранности: возвращается, когда всё, что было в очереди на момент вызова, записано на диск.
+    // Ошибка фоновой записи с прошлого вызова выбрасывается и при успешной записи.
+    void flush() throws IOException {
+        IOException background = this.failure.getAndSet(null);
+        try {
+            this.executor.submit(() -> {
+                this.writePending();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw withBackground(new IOException(e), background);
+        } catch (ExecutionException e) {
+            IOException cause = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            throw withBackground(cause, background);
+        }
+        if (background != null) {
+            throw new IOException("Ошибка фоновой записи, данные записаны повторной попыткой.", background);
+        }
+    }
+
+    private static IOException withBackground(IOException error, IOException background) {
+        if (background != null && background != error) {
+            error.addSuppressed(background);
+        }
+        return error;
+    }
+
+    void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            this.executor.shutdown();
+        }
+    }
+
+    private void writePending() throws IOException {
+        LibraryJournal journal = this.library.getJournal();
+        if (journal != null) {
+            String record;
+            while ((record = this.pendingRecords.poll()) != null) {
+                this.unwritten.add(record);
+            }
+            journal.appendAll(this.unwritten);
+            this.unwritten.clear();
+        } else {
+            this.library.checkpointDirty();
+        }
+    }
+
+    // Периодическая запись: при ошибке записи остаются в очереди, следующая попытка или
+    // flush() пишут их повторно. Ошибка запоминается и учитывается в метриках.
+    private void writePendingQuietly() {
+        long start = System.nanoTime();
+        try {
+            this.writePending();
+        } catch (IOException e) {
+            this.metrics.failure(start, e);
+            this.failure.compareAndSet(null, e);
+        }
+    }
+}
@@ -5,6 +5,12 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.time.Year;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 class BookTest {
     @Test
@@ -60,6 +66,46 @@ class BookTest {
         Assertions.assertEquals(1, book.getAvailableCopies());
     }
 
+    @Test
+    void testConcurrentGiveAndReturn() throws Exception {
+        Book book = new Book(1, "Колобок", "Дедуля", 2001, 5);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                int given = 0;
+                for (int i = 0; i < 10000; i++) {
+                    try {
+                        book.giveBook();
+                        given++;
+                        if (i % 2 == 0) {
+                            Assertions.assertTrue(book.returnBook());
+                            given--;
+                        }
+                    } catch (NoBooksAvailableException ignored) {
+                    }
+                    if (i == 5000) {
+                        book.addCopies(1);
+                    }
+                }
+                return given;
+            }));
+        }
+        start.countDown();
+        int onHand = 0;
+        for (Future<Integer> future : futures) {
+            onHand += future.get();
+        }
+        executor.shutdown();
+
+        Assertions.assertEquals(5 + threads, book.getTotalCopies());
+        Assertions.assertEquals(book.getTotalCopies() - onHand, book.getAvailableCopies());
+        Assertions.assertTrue(book.getAvailableCopies() >= 0);
+    }
+
     @Test
     void testEqualsAndHashCode() {
         Book book1 = new Book(1, "Колобок", "Дедуля", 2001, 3);
@@ -85,4 +131,13 @@ class BookTest {
         Assertions.assertEquals(book.getTotalCopies(), bookFromLine.getTotalCopies());
         Assertions.assertEquals(book.getAvailableCopies(), bookFromLine.getAvailableCopies());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testEqualsIgnoresCase() {
+        Book first = Book.fromFileString("1;Колобок;Дедуля;2001;1;1");
+        Book upper = new Book(3, "КОЛОБОК", "ДЕДУЛЯ", 2001, 1);
+        Assertions.assertEquals("ДЕДУЛЯ", upper.getAuthor());
+        Assertions.assertEquals(first, upper);
+        Assertions.assertEquals(first.hashCode(), upper.hashCode());
+    }
+}
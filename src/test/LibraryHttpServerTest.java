@@ -0,0 +1,107 @@
+import model.Library;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ui.LibraryHttpServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class LibraryHttpServerTest {
+    @TempDir
+    Path storageDir;
+
+    private Library library;
+    private LibraryHttpServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        Files.write(storageDir.resolve("books"), List.of("1;Колобок;Дедуля;2001;1;1", "2;Репка;Бабуля;2002;2;2"));
+        Files.write(storageDir.resolve("users"), List.of("1;Никита;nik@mail.ru"));
+        Files.write(storageDir.resolve("loans"), List.of());
+        this.library = new Library(storageDir.toString());
+        this.library.initLibrary();
+        this.server = new LibraryHttpServer(this.library, 0);
+        this.server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        this.server.stop();
+        this.library.close();
+    }
+
+    private HttpResponse<String> send(String method, String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + this.server.getPort() + path))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        return this.client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testBooksAndUsers() throws Exception {
+        HttpResponse<String> book = send("GET", "/books/1");
+        Assertions.assertEquals(200, book.statusCode());
+        Assertions.assertEquals("{\"id\":1,\"title\":\"Колобок\",\"author\":\"Дедуля\",\"year\":2001,"
+                + "\"totalCopies\":1,\"availableCopies\":1}", book.body());
+
+        HttpResponse<String> search = send("GET", "/books?query=" + URLEncoder.encode("репка", StandardCharsets.UTF_8));
+        Assertions.assertTrue(search.body().startsWith("[{\"id\":2,"));
+        Assertions.assertEquals(404, send("GET", "/books/99").statusCode());
+        Assertions.assertEquals(400, send("GET", "/books/abc").statusCode());
+        Assertions.assertEquals(405, send("DELETE", "/books/1").statusCode());
+        Assertions.assertTrue(send("GET", "/books?cursor=0&limit=1").body().endsWith("],\"nextCursor\":1}"));
+        Assertions.assertTrue(send("GET", "/books?cursor=1&limit=1").body().endsWith("],\"nextCursor\":null}"));
+        Assertions.assertTrue(send("GET", "/books?limit=1").body().matches("\\[\\{\"id\":1,[^\\]]*]"));
+
+        String name = URLEncoder.encode("Емеля \"Печкин\"", StandardCharsets.UTF_8);
+        HttpResponse<String> added = send("POST", "/users?name=" + name + "&email=em@mail.ru");
+        Assertions.assertEquals(200, added.statusCode());
+        int userId = Integer.parseInt(added.body().replaceAll("\\D", ""));
+        Assertions.assertTrue(send("GET", "/users/" + userId).body().contains("\"name\":\"Емеля \\\"Печкин\\\"\""));
+        Assertions.assertEquals(409, send("POST", "/users?name=" + name + "&email=em@mail.ru").statusCode());
+
+        // Текстовое хранилище разделяет поля ';', такие значения отклоняются до записи
+        String title = URLEncoder.encode("Сказки; том 1", StandardCharsets.UTF_8);
+        Assertions.assertEquals(400, send("POST", "/books?title=" + title + "&author=A&year=2001&copies=1").statusCode());
+        String multiline = URLEncoder.encode("Емеля\nПечкин", StandardCharsets.UTF_8);
+        Assertions.assertEquals(400, send("POST", "/users?name=" + multiline + "&email=x@mail.ru").statusCode());
+    }
+
+    @Test
+    void testStorageErrorIsNotExposed() throws Exception {
+        Files.delete(storageDir.resolve("books"));
+        Files.createDirectory(storageDir.resolve("books"));
+        HttpResponse<String> response = send("POST", "/books?title=X&author=Y&year=2001&copies=1");
+        Assertions.assertEquals(500, response.statusCode());
+        Assertions.assertEquals("{\"error\":\"Внутренняя ошибка сервера.\"}", response.body());
+    }
+
+    @Test
+    void testBorrowAndReturn() throws Exception {
+        HttpResponse<String> borrowed = send("POST", "/borrow?userId=1&bookId=1");
+        Assertions.assertEquals(200, borrowed.statusCode());
+        Assertions.assertTrue(borrowed.body().contains("\"returnDate\":null"));
+        Assertions.assertEquals(409, send("POST", "/borrow?userId=1&bookId=1").statusCode());
+        Assertions.assertEquals(404, send("POST", "/borrow?userId=99&bookId=2").statusCode());
+        Assertions.assertEquals(400, send("POST", "/borrow?userId=1").statusCode());
+        Assertions.assertTrue(send("GET", "/users/1/current").body().contains("\"bookId\":1"));
+
+        Assertions.assertEquals(200, send("POST", "/return?userId=1&bookId=1").statusCode());
+        Assertions.assertEquals(409, send("POST", "/return?userId=1&bookId=1").statusCode());
+        Assertions.assertEquals("[]", send("GET", "/users/1/current").body());
+        Assertions.assertFalse(send("GET", "/books/1/loans").body().contains("\"returnDate\":null"));
+        Assertions.assertEquals("{\"items\":[],\"nextCursor\":null}", send("GET", "/overdue").body());
+    }
+}
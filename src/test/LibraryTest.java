@@ -0,0 +1,789 @@
+import exceptions.BookFromUserNotFoundException;
+import exceptions.NoBooksAvailableException;
+import exceptions.UserAlreadyExistsException;
+import exceptions.UserBookQuotaExceededException;
+import model.Book;
+import model.ImportReport;
+import model.Library;
+import model.LibraryMetrics;
+import model.Loan;
+import model.Page;
+import model.StorageConverter;
+import model.StorageFormat;
+import model.StoreLoadStats;
+import model.User;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+class LibraryTest {
+    @TempDir
+    Path storageDir;
+
+    // Текстовое хранилище из готовых строк файлов books, users и loans
+    private void writeStorage(List<String> books, List<String> users, List<String> loans) throws IOException {
+        Files.write(storageDir.resolve("books"), books);
+        Files.write(storageDir.resolve("users"), users);
+        Files.write(storageDir.resolve("loans"), loans);
+    }
+
+    private Library journaledLibrary() {
+        Library library = new Library(storageDir.toString());
+        library.setJournalEnabled(true);
+        library.initLibrary();
+        return library;
+    }
+
+    @Test
+    void testJournalReplay() {
+        Library library = journaledLibrary();
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 2));
+        int otherBookId = library.addBook(new Book("Репка", "Бабуля", 2002, 1));
+        library.addBook(new Book("колобок", "дедуля", 2001, 3));
+        User user = new User("Никита", "nik@mail.ru", library);
+        library.addUser(user);
+        library.borrowBook(user.getId(), bookId);
+        library.borrowBook(user.getId(), otherBookId);
+        library.returnBook(user.getId(), otherBookId);
+
+        Assertions.assertFalse(Files.exists(storageDir.resolve("books")));
+
+        Library restored = journaledLibrary();
+        Assertions.assertEquals(5, restored.getBook(bookId).getTotalCopies());
+        Assertions.assertEquals(4, restored.getBook(bookId).getAvailableCopies());
+        Assertions.assertEquals(1, restored.getBook(otherBookId).getAvailableCopies());
+        Assertions.assertEquals(user, restored.getUser(user.getId()));
+        Assertions.assertEquals(2, restored.getUserLoanHistory(user.getId()).size());
+        Assertions.assertEquals(1, restored.getUser(user.getId()).getCurrentLoans().size());
+    }
+
+    @Test
+    void testJournalCompaction() throws IOException {
+        Library library = journaledLibrary();
+        library.setJournalCompactThreshold(3);
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 2));
+        User user = new User("Никита", "nik@mail.ru", library);
+        library.addUser(user);
+        library.borrowBook(user.getId(), bookId);
+
+        Assertions.assertTrue(Files.exists(storageDir.resolve("books")));
+        Assertions.assertEquals(0, Files.size(storageDir.resolve("journal")));
+
+        library.returnBook(user.getId(), bookId);
+        Library restored = journaledLibrary();
+        Assertions.assertEquals(2, restored.getBook(bookId).getAvailableCopies());
+        Assertions.assertTrue(restored.getUser(user.getId()).getCurrentLoans().isEmpty());
+    }
+
+    @Test
+    void testLoanIndexes() {
+        Library library = journaledLibrary();
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 2));
+        User first = new User("Никита", "nik@mail.ru", library);
+        User second = new User("Емеля", "em@mail.ru", library);
+        library.addUser(first);
+        library.addUser(second);
+        library.borrowBook(first.getId(), bookId);
+        library.borrowBook(second.getId(), bookId);
+        library.returnBook(first.getId(), bookId);
+
+        Assertions.assertEquals(2, library.getBookLoanHistory(bookId).size());
+        Assertions.assertEquals(1, library.getUserLoans(first.getId()).size());
+        Assertions.assertEquals(1, library.getActiveLoans().size());
+        Assertions.assertEquals(second.getId(), library.getActiveLoans().iterator().next().getUserId());
+        Assertions.assertThrows(IllegalStateException.class, () -> library.borrowBook(second.getId(), bookId));
+
+        List<Loan> history = library.getUserLoans(second.getId());
+        Assertions.assertSame(history, library.getUserLoans(second.getId()));
+        library.returnBook(second.getId(), bookId);
+        List<Loan> returned = library.getUserLoans(second.getId());
+        Assertions.assertNotSame(history, returned);
+        Assertions.assertEquals(List.of(LocalDate.now()), returned.stream().map(Loan::getReturnDate).toList());
+        Loan again = library.borrowBook(second.getId(), bookId);
+        Assertions.assertEquals(again, library.getUserLoans(second.getId()).get(1));
+    }
+
+    @Test
+    void testDuplicateDetection() {
+        Library library = journaledLibrary();
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 2));
+        Assertions.assertEquals(bookId, library.addBook(new Book("КОЛОБОК", "дедуля", 2001, 1)));
+        Assertions.assertNotEquals(bookId, library.addBook(new Book("Колобок", "Дедуля", 2002, 1)));
+        Assertions.assertEquals(3, library.getBook(bookId).getTotalCopies());
+
+        library.addUser(new User("Никита", "nik@mail.ru", library));
+        Assertions.assertThrows(UserAlreadyExistsException.class, () ->
+                library.addUser(new User("никита", "NIK@mail.ru", library)));
+    }
+
+    @Test
+    void testConcurrentBorrowAndReturn() throws Exception {
+        Library library = journaledLibrary();
+        library.setJournalCompactThreshold(500);
+        List<Integer> bookIds = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            bookIds.add(library.addBook(new Book("Книга " + i, "Автор", 2001, 3)));
+        }
+        List<Integer> userIds = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            User user = new User("Читатель " + i, "reader" + i + "@mail.ru", library);
+            library.addUser(user);
+            userIds.add(user.getId());
+        }
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 2000; i++) {
+                    int userId = userIds.get(random.nextInt(userIds.size()));
+                    int bookId = bookIds.get(random.nextInt(bookIds.size()));
+                    try {
+                        if (random.nextBoolean()) {
+                            library.borrowBook(userId, bookId);
+                        } else {
+                            library.returnBook(userId, bookId);
+                        }
+                    } catch (UserBookQuotaExceededException | NoBooksAvailableException
+                             | BookFromUserNotFoundException | IllegalStateException ignored) {
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        for (int bookId : bookIds) {
+            Book book = library.getBook(bookId);
+            long onHand = library.getActiveLoans().stream().filter(l -> l.getBookId() == bookId).count();
+            Assertions.assertTrue(book.getAvailableCopies() >= 0);
+            Assertions.assertEquals(book.getTotalCopies() - onHand, book.getAvailableCopies());
+        }
+        for (int userId : userIds) {
+            Assertions.assertTrue(library.getUser(userId).getCurrentLoans().size() <= 3);
+        }
+
+        Library restored = journaledLibrary();
+        Assertions.assertEquals(library.getActiveLoans().size(), restored.getActiveLoans().size());
+        for (int bookId : bookIds) {
+            Assertions.assertEquals(library.getBook(bookId).getAvailableCopies(), restored.getBook(bookId).getAvailableCopies());
+        }
+        for (Loan loan : library.getActiveLoans()) {
+            Assertions.assertTrue(restored.getLoan(loan.getId()).isActive());
+        }
+    }
+
+    @Test
+    void testSearchBooks() {
+        Library library = journaledLibrary();
+        int kolobok = library.addBook(new Book("Колобок", "Дедуля", 2001, 1));
+        int kolobokTwo = library.addBook(new Book("Колобок 2", "Зайчик", 1802, 1));
+        int turnip = library.addBook(new Book("Репка", "Бабуля Колобкова", 2002, 1));
+
+        Assertions.assertEquals(List.of(kolobok, kolobokTwo, turnip),
+                library.searchBooks("колоб", 10).stream().map(Book::getId).toList());
+        Assertions.assertEquals(List.of(kolobokTwo),
+                library.searchBooks("ОК 2", 10).stream().map(Book::getId).toList());
+        Assertions.assertEquals(List.of(turnip),
+                library.searchBooks("2002", 10).stream().map(Book::getId).toList());
+        Assertions.assertEquals(List.of(turnip),
+                library.searchBooks("ба", 10).stream().map(Book::getId).toList());
+        Assertions.assertTrue(library.searchBooks("дракон", 10).isEmpty());
+        Assertions.assertEquals(3, library.searchBooks("", 10).size());
+        Assertions.assertEquals(List.of(kolobok, kolobokTwo),
+                library.searchBooks("колоб", 2).stream().map(Book::getId).toList());
+        Assertions.assertEquals(List.of(kolobok), library.searchBooks("", 1).stream().map(Book::getId).toList());
+    }
+
+    @Test
+    void testSearchUsers() {
+        Library library = journaledLibrary();
+        User nikita = new User("Никита Калогривый", "NiCal@mail.ru", library);
+        User emelya = new User("Емеля Лежебоков", "EmLeja@mail.ru", library);
+        library.addUser(nikita);
+        library.addUser(emelya);
+
+        Assertions.assertEquals(emelya, library.findUserByEmail("emleja@MAIL.ru"));
+        Assertions.assertNull(library.findUserByEmail("nobody@mail.ru"));
+        Assertions.assertEquals(List.of(nikita), library.searchUsers("калог", 10));
+        Assertions.assertEquals(List.of(emelya), library.searchUsers("EML", 10));
+        Assertions.assertEquals(List.of(nikita), library.searchUsers(String.valueOf(nikita.getId()), 10));
+        Assertions.assertEquals(1, library.searchUsers("", 1).size());
+    }
+
+    @Test
+    void testBinaryStorageAndConversion() throws IOException {
+        Library library = new Library(storageDir.toString());
+        library.initLibrary();
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 2));
+        User user = new User("Никита", "nik@mail.ru", library);
+        library.addUser(user);
+        Loan loan = library.borrowBook(user.getId(), bookId);
+
+        StorageConverter.convert(storageDir.toString(), StorageFormat.TEXT, StorageFormat.BINARY);
+        Library binary = new Library(storageDir.toString());
+        binary.setStorageFormat(StorageFormat.BINARY);
+        binary.initLibrary();
+        Assertions.assertEquals(1, binary.getBook(bookId).getAvailableCopies());
+        Assertions.assertEquals(user, binary.getUser(user.getId()));
+        Assertions.assertEquals(loan, binary.getLoan(loan.getId()));
+
+        int trickyId = binary.addBook(new Book("Сказки; том 1", "Автор", 2001, 1));
+        binary.returnBook(user.getId(), bookId);
+        Library reloaded = new Library(storageDir.toString());
+        reloaded.setStorageFormat(StorageFormat.BINARY);
+        reloaded.initLibrary();
+        Assertions.assertEquals("Сказки; том 1", reloaded.getBook(trickyId).getTitle());
+        Assertions.assertEquals(LocalDate.now(), reloaded.getLoan(loan.getId()).getReturnDate());
+    }
+
+    @Test
+    void testBinaryJournalReplaysSemicolons() throws IOException {
+        Library library = new Library(storageDir.toString());
+        library.setStorageFormat(StorageFormat.BINARY);
+        library.setJournalEnabled(true);
+        library.initLibrary();
+        int bookId = library.addBook(new Book("Сказки; том 1", "Автор\\Соавтор", 2001, 2));
+        User user = new User("Никита; младший", "nik@mail.ru", library);
+        library.addUser(user);
+        library.borrowBook(user.getId(), bookId);
+        library.close();
+
+        Library reloaded = new Library(storageDir.toString());
+        reloaded.setStorageFormat(StorageFormat.BINARY);
+        reloaded.setJournalEnabled(true);
+        reloaded.initLibrary();
+        Book book = reloaded.getBook(bookId);
+        Assertions.assertEquals("Сказки; том 1", book.getTitle());
+        Assertions.assertEquals("Автор\\Соавтор", book.getAuthor());
+        Assertions.assertEquals(2001, book.getYear());
+        Assertions.assertEquals(1, book.getAvailableCopies());
+        Assertions.assertEquals("Никита; младший", reloaded.getUser(user.getId()).getName());
+        Assertions.assertEquals(List.of(3), reloaded.getLoadStats().stream()
+                .filter(stats -> stats.store().equals("journal")).map(StoreLoadStats::records).toList());
+    }
+
+    @Test
+    void testMappedLoanStore() throws IOException {
+        Library library = new Library(storageDir.toString());
+        library.initLibrary();
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 2));
+        int otherBookId = library.addBook(new Book("Репка", "Бабуля", 2002, 1));
+        User user = new User("Никита", "nik@mail.ru", library);
+        library.addUser(user);
+        Loan first = library.borrowBook(user.getId(), bookId);
+
+        Library mapped = new Library(storageDir.toString());
+        mapped.setMappedLoansEnabled(true);
+        mapped.initLibrary();
+        Assertions.assertTrue(Files.exists(storageDir.resolve("loans.map")));
+        String booksBefore = Files.readString(storageDir.resolve("books"));
+        mapped.returnBook(user.getId(), bookId);
+        Loan second = mapped.borrowBook(user.getId(), otherBookId);
+        Assertions.assertEquals(booksBefore, Files.readString(storageDir.resolve("books")));
+
+        Library reloaded = new Library(storageDir.toString());
+        reloaded.setMappedLoansEnabled(true);
+        reloaded.initLibrary();
+        Assertions.assertFalse(reloaded.getLoan(first.getId()).isActive());
+        Assertions.assertTrue(reloaded.getLoan(second.getId()).isActive());
+        Assertions.assertEquals(2, reloaded.getBook(bookId).getAvailableCopies());
+        Assertions.assertEquals(0, reloaded.getBook(otherBookId).getAvailableCopies());
+        Assertions.assertEquals(List.of(first.getId()),
+                reloaded.getBookLoanHistory(bookId).stream().map(Loan::getId).toList());
+        Assertions.assertEquals(List.of(first.getId(), second.getId()),
+                reloaded.getUserLoans(user.getId()).stream().map(Loan::getId).toList());
+        reloaded.returnBook(user.getId(), otherBookId);
+        Loan third = reloaded.borrowBook(user.getId(), bookId);
+        Assertions.assertTrue(third.getId() > second.getId());
+        Assertions.assertEquals(3, reloaded.getLoans().size());
+        reloaded.close();
+    }
+
+    @Test
+    void testMappedLoanStoreVersion1() throws IOException {
+        writeStorage(List.of("1;Колобок;Дедуля;2001;2;1"), List.of("1;Никита;nik@mail.ru"), List.of());
+        ByteBuffer file = ByteBuffer.allocate(16 + 2 * 20);
+        file.putInt(0x4C424D4C).putShort((short) 1).putShort((short) 0).putInt(2).putInt(0);
+        file.putInt(1).putInt(1).putInt(1).putInt((int) LocalDate.of(2020, 1, 10).toEpochDay())
+                .putInt((int) LocalDate.of(2020, 1, 20).toEpochDay());
+        file.putInt(2).putInt(1).putInt(1).putInt((int) LocalDate.of(2020, 2, 10).toEpochDay()).putInt(Integer.MIN_VALUE);
+        Files.write(storageDir.resolve("loans.map"), file.array());
+
+        Library library = new Library(storageDir.toString());
+        library.setMappedLoansEnabled(true);
+        library.initLibrary();
+        Assertions.assertEquals(1, library.getActiveLoans().size());
+        Assertions.assertEquals(LocalDate.of(2020, 1, 20), library.getLoan(1).getReturnDate());
+        Assertions.assertEquals(2, library.getBookLoanHistory(1).size());
+        library.close();
+    }
+
+    @Test
+    void testParallelLoad() throws IOException {
+        List<String> bookLines = new ArrayList<>();
+        for (int i = 1; i <= 5000; i++) {
+            bookLines.add(i + ";Книга " + i + ";Автор " + i % 50 + ";2001;3;3");
+        }
+        List<String> loanLines = new ArrayList<>();
+        for (int i = 1; i <= 20000; i++) {
+            loanLines.add(i + ";" + (i % 5000 + 1) + ";" + (i % 7 + 1) + ";2025-01-01;2025-01-10");
+        }
+        writeStorage(bookLines, List.of("1;Никита;nik@mail.ru"), loanLines);
+
+        Library library = new Library(storageDir.toString());
+        library.initLibrary();
+        Assertions.assertEquals(5000, library.getBooks().size());
+        Assertions.assertEquals(20000, library.getLoans().size());
+        List<Integer> loanIds = library.getUserLoans(1).stream().map(Loan::getId).toList();
+        Assertions.assertEquals(loanIds.stream().sorted().toList(), loanIds);
+        Assertions.assertEquals(List.of("books", "loans", "users"),
+                library.getLoadStats().stream().map(StoreLoadStats::store).sorted().toList());
+        Assertions.assertEquals(20000, library.getLoadStats().stream()
+                .filter(s -> s.store().equals("loans")).findFirst().orElseThrow().records());
+    }
+
+    @Test
+    void testExpiredLoans() throws IOException {
+        String today = LocalDate.now().toString();
+        String month = LocalDate.now().minusDays(30).toString();
+        writeStorage(List.of("1;Колобок;Дедуля;2001;5;1"),
+                List.of("1;Никита;nik@mail.ru", "2;Емеля;em@mail.ru"),
+                List.of(
+                        "1;1;1;2020-03-01;",
+                        "2;1;2;2020-01-01;",
+                        "3;1;1;2019-01-01;2019-01-05",
+                        "4;1;2;" + today + ";",
+                        "5;1;1;" + month + ";"));
+
+        Library library = new Library(storageDir.toString());
+        library.initLibrary();
+        Assertions.assertEquals(List.of(2, 1), library.getExpiredLoans().stream().map(Loan::getId).toList());
+
+        Page<Loan> first = library.getExpiredLoansPage(Page.FIRST, 1);
+        Assertions.assertEquals(List.of(2), first.items().stream().map(Loan::getId).toList());
+        Page<Loan> second = library.getExpiredLoansPage(first.nextCursor(), 1);
+        Assertions.assertEquals(List.of(1), second.items().stream().map(Loan::getId).toList());
+        Assertions.assertEquals(Page.END, second.nextCursor());
+
+        library.returnBook(2, 1);
+        Assertions.assertEquals(List.of(1), library.getExpiredLoansPage(first.nextCursor(), 10).items().stream()
+                .map(Loan::getId).toList());
+        Assertions.assertEquals(List.of(1), library.getExpiredLoans().stream().map(Loan::getId).toList());
+        Assertions.assertTrue(library.getExpiredLoans().stream().allMatch(Loan::isExpired));
+    }
+
+    @Test
+    void testWriteBehind() throws IOException {
+        Library journaled = journaledLibrary();
+        journaled.setWriteBehindInterval(60_000);
+        int bookId = journaled.addBook(new Book("Колобок", "Дедуля", 2001, 2));
+        User user = new User("Никита", "nik@mail.ru", journaled);
+        journaled.addUser(user);
+        journaled.borrowBook(user.getId(), bookId);
+        Assertions.assertNull(journaledLibrary().getBook(bookId));
+
+        journaled.flush();
+        Library restored = journaledLibrary();
+        Assertions.assertEquals(1, restored.getBook(bookId).getAvailableCopies());
+        Assertions.assertEquals(1, restored.getActiveLoans().size());
+        journaled.close();
+
+        Path snapshotDir = Files.createDirectory(storageDir.resolve("snapshots"));
+        Library snapshots = new Library(snapshotDir.toString());
+        snapshots.setWriteBehindInterval(60_000);
+        int otherId = snapshots.addBook(new Book("Репка", "Бабуля", 2002, 1));
+        Assertions.assertFalse(Files.exists(snapshotDir.resolve("books")));
+        snapshots.close();
+        Library reloaded = new Library(snapshotDir.toString());
+        reloaded.initLibrary();
+        Assertions.assertEquals("Репка", reloaded.getBook(otherId).getTitle());
+    }
+
+    @Test
+    void testWriteBehindRetry() throws IOException {
+        Library library = journaledLibrary();
+        library.setWriteBehindInterval(60_000);
+        Path journal = storageDir.resolve("journal");
+        Files.deleteIfExists(journal);
+        Files.createDirectory(journal);
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 2));
+        Assertions.assertThrows(IllegalArgumentException.class, library::flush);
+
+        Files.delete(journal);
+        library.flush();
+        Assertions.assertEquals("Колобок", journaledLibrary().getBook(bookId).getTitle());
+        library.close();
+    }
+
+    @Test
+    void testWriteBehindBackgroundFailure() throws Exception {
+        Library library = journaledLibrary();
+        library.setWriteBehindInterval(10);
+        Path journal = storageDir.resolve("journal");
+        Files.deleteIfExists(journal);
+        Files.createDirectory(journal);
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 2));
+        for (int i = 0; i < 500 && library.getMetrics().getErrorCount("writeBehind") == 0; i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(library.getMetrics().getErrorCount("writeBehind") > 0);
+
+        // Повторная попытка записывает данные, но flush() всё равно сообщает о сбое, один раз
+        Files.delete(journal);
+        Assertions.assertThrows(IllegalArgumentException.class, library::flush);
+        library.flush();
+        Assertions.assertEquals("Колобок", journaledLibrary().getBook(bookId).getTitle());
+        library.close();
+    }
+
+    @Test
+    void testCheckpointRecovery() throws IOException {
+        Library library = new Library(storageDir.toString());
+        library.initLibrary();
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 2));
+        User user = new User("Никита", "nik@mail.ru", library);
+        library.addUser(user);
+        library.borrowBook(user.getId(), bookId);
+        Assertions.assertFalse(Files.exists(storageDir.resolve("books.tmp")));
+        Assertions.assertFalse(Files.exists(storageDir.resolve("checkpoint")));
+
+        // Сбой после записи маркера: контрольная точка доводится до конца при загрузке
+        Files.writeString(storageDir.resolve("books.tmp"), bookId + ";Колобок;Дедуля;2001;2;2\n");
+        Files.writeString(storageDir.resolve("loans.tmp"), "");
+        Files.writeString(storageDir.resolve("checkpoint"), "books\nloans");
+        Library recovered = new Library(storageDir.toString());
+        recovered.initLibrary();
+        Assertions.assertEquals(2, recovered.getBook(bookId).getAvailableCopies());
+        Assertions.assertTrue(recovered.getActiveLoans().isEmpty());
+        Assertions.assertFalse(Files.exists(storageDir.resolve("checkpoint")));
+
+        // Сбой до записи маркера: временные файлы удаляются, рабочие не меняются
+        Files.writeString(storageDir.resolve("users.tmp"), "мусор");
+        Library unchanged = new Library(storageDir.toString());
+        unchanged.initLibrary();
+        Assertions.assertEquals(user, unchanged.getUser(user.getId()));
+        Assertions.assertFalse(Files.exists(storageDir.resolve("users.tmp")));
+    }
+
+    @Test
+    void testSegmentedStorage() throws IOException {
+        Files.write(storageDir.resolve("books"), List.of(
+                "1;Колобок;Дедуля;2001;2;2",
+                "5000;Репка;Бабуля;2002;1;1"));
+        StorageConverter.convert(storageDir.toString(), StorageFormat.TEXT, StorageFormat.SEGMENTED);
+        Path firstSegment = storageDir.resolve("books.seg/0");
+        Assertions.assertTrue(Files.exists(firstSegment));
+        Assertions.assertTrue(Files.exists(storageDir.resolve("books.seg/4")));
+
+        // Правка на диске покажет, перезаписывался ли сегмент
+        Files.writeString(firstSegment, "1;Колобок (изд. 2);Дедуля;2001;2;2\n");
+        Library library = new Library(storageDir.toString());
+        library.setStorageFormat(StorageFormat.SEGMENTED);
+        library.initLibrary();
+        library.addBook(new Book("Репка", "Бабуля", 2002, 3));
+
+        Library reloaded = new Library(storageDir.toString());
+        reloaded.setStorageFormat(StorageFormat.SEGMENTED);
+        reloaded.initLibrary();
+        Assertions.assertEquals("Колобок (изд. 2)", reloaded.getBook(1).getTitle());
+        Assertions.assertEquals(4, reloaded.getBook(5000).getTotalCopies());
+    }
+
+    @Test
+    void testSharedAuthors() throws IOException {
+        writeStorage(List.of("1;Колобок;Дедуля;2001;1;1", "2;Репка;ДЕДУЛЯ;2002;1;1"), List.of(), List.of());
+        Library library = new Library(storageDir.toString());
+        library.setJournalEnabled(true);
+        library.initLibrary();
+        int third = library.addBook(new Book("Теремок", "Дедуля", 2003, 1));
+        library.importBooks(new StringReader("title,author,year,copies\nМуха-цокотуха,Дедуля,2004,1\n"));
+        Book imported = library.searchBooks("цокотуха", 1).get(0);
+        Assertions.assertSame(library.getBook(1).getAuthor(), imported.getAuthor());
+
+        Library reloaded = new Library(storageDir.toString());
+        reloaded.setJournalEnabled(true);
+        reloaded.initLibrary();
+        Assertions.assertSame(reloaded.getBook(1).getAuthor(), reloaded.getBook(third).getAuthor());
+        Assertions.assertEquals(4, reloaded.searchBooks("дедуля", 10).size());
+    }
+
+    @Test
+    void testMetrics() {
+        Library library = journaledLibrary();
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 1));
+        User user = new User("Никита", "nik@mail.ru", library);
+        library.addUser(user);
+        User other = new User("Катя", "kat@mail.ru", library);
+        library.addUser(other);
+        library.borrowBook(user.getId(), bookId);
+        Assertions.assertThrows(NoBooksAvailableException.class, () -> library.borrowBook(other.getId(), bookId));
+        Assertions.assertThrows(BookFromUserNotFoundException.class, () -> library.returnBook(other.getId(), bookId));
+        library.searchBooks("колоб", 10);
+        library.getExpiredLoans();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> library.getExpiredLoansPage(Page.FIRST, 0));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> library.importUsers(new StringReader("email,name\n")));
+
+        LibraryMetrics metrics = library.getMetrics();
+        Assertions.assertEquals(2, metrics.getCount("borrowBook"));
+        Assertions.assertEquals(1, metrics.getErrorCount("borrowBook"));
+        Assertions.assertEquals(1, metrics.getErrorCount("returnBook"));
+        Assertions.assertEquals(1, metrics.getCount("searchBooks"));
+        Assertions.assertEquals(1, metrics.getCount("initLibrary"));
+        Assertions.assertEquals(2, metrics.getCount("getExpiredLoans"));
+        Assertions.assertEquals(1, metrics.getErrorCount("getExpiredLoans"));
+        Assertions.assertEquals(1, metrics.getErrorCount("importUsers"));
+        Assertions.assertTrue(metrics.getPercentileMicros("borrowBook", 1.0) > 0);
+        String dump = metrics.dump();
+        Assertions.assertTrue(dump.contains("NoBooksAvailableException: 1"));
+        Assertions.assertTrue(dump.contains("BookFromUserNotFoundException: 1"));
+
+        metrics.register("test");
+        metrics.reset();
+        Assertions.assertEquals(0, metrics.getCount("borrowBook"));
+    }
+
+    @Test
+    void testCurrentLoansView() throws IOException {
+        writeStorage(List.of(
+                        "1;Колобок;Дедуля;2001;2;1",
+                        "2;Репка;Бабуля;2002;2;1",
+                        "3;Теремок;Автор;2003;2;2"),
+                List.of("1;Никита;nik@mail.ru"),
+                List.of(
+                        "1;1;1;2020-01-10;",
+                        "2;3;1;2019-05-01;2019-05-10",
+                        "3;2;1;2020-03-01;"));
+        Library library = new Library(storageDir.toString());
+        library.initLibrary();
+        User user = library.getUser(1);
+
+        List<Loan> current = user.getCurrentLoans();
+        Assertions.assertEquals(List.of(3, 1), current.stream().map(Loan::getId).toList());
+        Assertions.assertSame(current, user.getCurrentLoans());
+        Assertions.assertEquals(3, user.getUserLoans().size());
+
+        Loan loan = library.borrowBook(1, 3);
+        Assertions.assertEquals(List.of(loan.getId(), 3, 1), user.getCurrentLoans().stream().map(Loan::getId).toList());
+        library.returnBook(1, 2);
+        Assertions.assertEquals(List.of(loan.getId(), 1), user.getCurrentLoans().stream().map(Loan::getId).toList());
+        Assertions.assertEquals(4, user.getUserLoans().size());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> user.getCurrentLoans().clear());
+    }
+
+    @Test
+    void testClosedLoanHistory() throws IOException {
+        writeStorage(List.of("1;Колобок;Дедуля;2001;2;2", "2;Репка;Бабуля;2002;1;1"),
+                List.of("1;Никита;nik@mail.ru", "2;Емеля;em@mail.ru"),
+                List.of("1;1;1;2020-01-10;2020-01-20"));
+        Library library = new Library(storageDir.toString());
+        library.setJournalEnabled(true);
+        library.initLibrary();
+
+        Loan first = library.borrowBook(1, 1);
+        Loan second = library.borrowBook(2, 1);
+        library.borrowBook(1, 2);
+        library.returnBook(1, 1);
+
+        Assertions.assertEquals(first, library.getLoan(first.getId()));
+        Assertions.assertFalse(library.getLoan(first.getId()).isActive());
+        Assertions.assertEquals(4, library.getLoans().size());
+        Assertions.assertEquals(2, library.getActiveLoans().size());
+        Assertions.assertEquals(List.of(1, first.getId(), second.getId()),
+                library.getBookLoanHistory(1).stream().map(Loan::getId).toList());
+        Assertions.assertEquals(3, library.getUserLoans(1).size());
+        Assertions.assertEquals(1, library.getCurrentLoans(1).size());
+
+        // Журнал проигрывается поверх снимка, в котором возврат уже записан
+        library.saveLoans();
+        Library reloaded = new Library(storageDir.toString());
+        reloaded.setJournalEnabled(true);
+        reloaded.initLibrary();
+        Assertions.assertEquals(4, reloaded.getLoans().size());
+        Assertions.assertEquals(LocalDate.now(), reloaded.getLoan(first.getId()).getReturnDate());
+        Assertions.assertEquals(library.getBookLoanHistory(1), reloaded.getBookLoanHistory(1));
+        Assertions.assertEquals(1, reloaded.getBook(1).getAvailableCopies());
+    }
+
+    @Test
+    void testFixedClock() {
+        Library library = new Library(storageDir.toString());
+        library.initLibrary();
+        ZoneId zone = ZoneId.of("Europe/Moscow");
+        LocalDate day = LocalDate.of(2024, 2, 1);
+        library.setClock(Clock.fixed(day.atTime(23, 59).atZone(zone).toInstant(), zone));
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 1));
+        User user = new User("Никита", "nik@mail.ru", library);
+        library.addUser(user);
+
+        Loan loan = library.borrowBook(user.getId(), bookId);
+        Assertions.assertEquals(day, loan.getLoanDate());
+
+        // Срок - 30 дней: в последний день выдача ещё не просрочена, на следующий - просрочена
+        library.setClock(Clock.fixed(day.plusDays(30).atStartOfDay(zone).toInstant(), zone));
+        Assertions.assertFalse(loan.isExpired());
+        Assertions.assertEquals(List.of(), library.getExpiredLoans());
+        library.setClock(Clock.fixed(day.plusDays(31).atStartOfDay(zone).toInstant(), zone));
+        Assertions.assertTrue(loan.isExpired());
+        Assertions.assertEquals(List.of(loan), library.getExpiredLoans());
+
+        library.returnBook(user.getId(), bookId);
+        Assertions.assertEquals(day.plusDays(31), loan.getReturnDate());
+        Assertions.assertFalse(loan.isExpired());
+    }
+
+    @Test
+    void testPagination() throws IOException {
+        List<String> bookLines = new ArrayList<>();
+        for (int i = 1; i <= 7; i++) {
+            if (i != 4) {
+                bookLines.add(i + ";Книга " + i + ";Автор;2001;2;2");
+            }
+        }
+        writeStorage(bookLines, List.of("1;Никита;nik@mail.ru"), List.of(
+                "1;1;1;2020-01-10;2020-01-20",
+                "2;2;1;2020-02-10;2020-02-20",
+                "3;3;1;2020-03-10;2020-03-20"));
+        Library library = new Library(storageDir.toString());
+        library.initLibrary();
+
+        Page<Book> first = library.getBooksPage(Page.FIRST, 3);
+        Assertions.assertEquals(List.of(1, 2, 3), first.items().stream().map(Book::getId).toList());
+        Page<Book> second = library.getBooksPage(first.nextCursor(), 3);
+        Assertions.assertEquals(List.of(5, 6, 7), second.items().stream().map(Book::getId).toList());
+        Assertions.assertFalse(second.hasNext());
+        Assertions.assertEquals(List.of(1, 2, 3, 5, 6, 7), library.streamBooks().map(Book::getId).toList());
+        Assertions.assertEquals(List.of(1, 2), library.streamBooks().limit(2).map(Book::getId).toList());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> library.getBooksPage(Page.END, 3));
+
+        Loan active = library.borrowBook(1, 5);
+        library.borrowBook(1, 6);
+        library.returnBook(1, 6);
+        Page<Loan> loans = library.getUserLoansPage(1, Page.FIRST, 3);
+        Assertions.assertEquals(List.of(1, 2, 3), loans.items().stream().map(Loan::getId).toList());
+        Page<Loan> rest = library.getUserLoansPage(1, loans.nextCursor(), 3);
+        Assertions.assertEquals(2, rest.items().size());
+        Assertions.assertEquals(active, rest.items().get(0));
+        Assertions.assertFalse(rest.hasNext());
+        Assertions.assertEquals(library.getUserLoans(1), library.streamUserLoans(1).toList());
+        Assertions.assertEquals(library.getLoans().size(), library.streamLoans().count());
+        Assertions.assertEquals(List.of(active), library.streamBookLoanHistory(5).toList());
+    }
+
+    @Test
+    void testSparseIdPagination() throws IOException {
+        writeStorage(List.of("1;Колобок;Дедуля;2001;1;1", "3;Репка;Бабуля;2002;1;1",
+                        "100000;Теремок;Бабуля;2003;1;1", "200000;Сказки;Дедуля;2004;1;1"),
+                List.of("1;Никита;nik@mail.ru"),
+                List.of("1;1;1;2020-01-10;2020-01-20", "150000;3;1;2020-02-10;2020-02-20"));
+        Library library = new Library(storageDir.toString());
+        library.initLibrary();
+
+        Page<Book> first = library.getBooksPage(Page.FIRST, 2);
+        Assertions.assertEquals(List.of(1, 3), first.items().stream().map(Book::getId).toList());
+        // После id 3 пропуски превышают limit, страница выбирается из занятых ключей
+        Page<Book> second = library.getBooksPage(first.nextCursor(), 1);
+        Assertions.assertEquals(List.of(100000), second.items().stream().map(Book::getId).toList());
+        Page<Book> last = library.getBooksPage(second.nextCursor(), 5);
+        Assertions.assertEquals(List.of(200000), last.items().stream().map(Book::getId).toList());
+        Assertions.assertFalse(last.hasNext());
+        Assertions.assertEquals(List.of(1, 3, 100000, 200000), library.streamBooks().map(Book::getId).toList());
+
+        Page<Loan> loans = library.getLoansPage(1, 5);
+        Assertions.assertEquals(List.of(150000), loans.items().stream().map(Loan::getId).toList());
+        Assertions.assertFalse(loans.hasNext());
+        Assertions.assertEquals(List.of(1, 150000), library.streamLoans().map(Loan::getId).toList());
+    }
+
+    @Test
+    void testBulkImportAndExport() throws IOException {
+        writeStorage(List.of("1;Колобок;Дедуля;2001;1;1"), List.of("1;Никита;nik@mail.ru"), List.of());
+        Library library = new Library(storageDir.toString());
+        library.initLibrary();
+
+        ImportReport books = library.importBooks(new StringReader(String.join("\n",
+                "title,author,year,copies",
+                "колобок,дедуля,2001,2",
+                "\"Сказки, \"\"народные\"\"\",Бабуля,1999,3",
+                "Репка,,2002,1",
+                "Теремок,Дедуля,год,1",
+                "\"Сказки, \"\"народные\"\"\",бабуля,1999,1",
+                "Бочка;мёд,Дедуля,2001,1")));
+        Assertions.assertEquals(1, books.accepted());
+        Assertions.assertEquals(2, books.merged());
+        Assertions.assertEquals(3, books.rejected());
+        Assertions.assertTrue(books.errors().get(0).startsWith("строка 4: "));
+        Assertions.assertEquals(3, library.getBook(1).getTotalCopies());
+        Book imported = library.streamBooks().skip(1).findFirst().orElseThrow();
+        Assertions.assertEquals(4, imported.getTotalCopies());
+        Assertions.assertEquals("Сказки, \"народные\"", imported.getTitle());
+
+        ImportReport users = library.importUsers(new StringReader("name,email\nЕмеля,em@mail.ru\nникита,NIK@mail.ru\n"));
+        Assertions.assertEquals(1, users.accepted());
+        Assertions.assertEquals(1, users.rejected());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> library.importUsers(new StringReader("email,name\n")));
+
+        Library restored = new Library(storageDir.toString());
+        restored.initLibrary();
+        Assertions.assertEquals(4, restored.getBook(imported.getId()).getTotalCopies());
+        Assertions.assertEquals(2, restored.getUsers().size());
+
+        StringWriter exported = new StringWriter();
+        Assertions.assertEquals(2, restored.exportBooks(exported));
+        Assertions.assertTrue(exported.toString().contains("\"Сказки, \"\"народные\"\"\",Бабуля,1999,4"));
+        Library copy = new Library(Files.createDirectories(storageDir.resolve("copy")).toString());
+        Assertions.assertEquals(2, copy.importBooks(new StringReader(exported.toString())).accepted());
+    }
+
+    @Test
+    void testImportCheckpointsJournal() throws IOException {
+        Library library = journaledLibrary();
+        int bookId = library.addBook(new Book("Колобок", "Дедуля", 2001, 1));
+        User user = new User("Никита", "nik@mail.ru", library);
+        library.addUser(user);
+        library.borrowBook(user.getId(), bookId);
+
+        Assertions.assertEquals(1, library.importBooks(new StringReader(
+                "title,author,year,copies\nколобок,дедуля,2001,2\nРепка,Бабуля,2002,1\nТеремок,Бабуля,2003,1\n")).merged());
+        Assertions.assertEquals(1, library.importUsers(new StringReader("name,email\nЕмеля,em@mail.ru\n")).accepted());
+        // Импорт завершился контрольной точкой: снимок содержит всё, журнал начат заново
+        Assertions.assertEquals(0, Files.size(storageDir.resolve("journal")));
+        library.returnBook(user.getId(), bookId);
+
+        Library restored = journaledLibrary();
+        Assertions.assertEquals(3, restored.getBooks().size());
+        Assertions.assertEquals(2, restored.getUsers().size());
+        Assertions.assertEquals(3, restored.getBook(bookId).getTotalCopies());
+        Assertions.assertEquals(3, restored.getBook(bookId).getAvailableCopies());
+        Assertions.assertEquals(1, restored.getUserLoanHistory(user.getId()).size());
+        Assertions.assertEquals(List.of(1), restored.getLoadStats().stream()
+                .filter(stats -> stats.store().equals("journal")).map(StoreLoadStats::records).toList());
+    }
+}
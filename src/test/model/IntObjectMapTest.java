@@ -0,0 +1,66 @@
+package model;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class IntObjectMapTest {
+    @Test
+    void testMatchesHashMap() {
+        IntObjectMap<String> map = new IntObjectMap<>(4);
+        Map<Integer, String> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 200_000; i++) {
+            int key = random.nextInt(5000) - 100;
+            switch (random.nextInt(4)) {
+                case 0, 1 -> Assertions.assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+                case 2 -> Assertions.assertEquals(expected.remove(key), map.remove(key));
+                default -> Assertions.assertEquals(expected.get(key), map.get(key));
+            }
+        }
+        Assertions.assertEquals(expected.size(), map.size());
+        Assertions.assertEquals(expected, map.asMap());
+        List<Integer> keys = new ArrayList<>();
+        map.forEachKey(keys::add);
+        Assertions.assertEquals(expected.size(), keys.size());
+        Assertions.assertTrue(expected.keySet().containsAll(keys));
+
+        map.clear();
+        Assertions.assertTrue(map.isEmpty());
+        Assertions.assertNull(map.get(keys.get(0)));
+    }
+
+    @Test
+    void testConcurrentPutAndGet() throws Exception {
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = thread; i < 100_000; i += 4) {
+                    map.put(i, i);
+                    Assertions.assertEquals(i, map.get(i));
+                    if (i % 3 == 0) {
+                        Assertions.assertEquals(i, map.remove(i));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        for (int i = 0; i < 100_000; i++) {
+            Assertions.assertEquals(i % 3 == 0 ? null : i, map.get(i));
+        }
+    }
+}
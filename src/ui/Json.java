@@ -0,0 +1,91 @@
+package ui;
+
+import model.Book;
+import model.Loan;
+import model.Page;
+import model.User;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.function.Function;
+
+// Запись ответов HTTP API в JSON. Объекты небольшие и плоские, поэтому строки собираются вручную.
+final class Json {
+    private Json() {
+    }
+
+    static String book(Book book) {
+        return "{\"id\":" + book.getId()
+                + ",\"title\":" + string(book.getTitle())
+                + ",\"author\":" + string(book.getAuthor())
+                + ",\"year\":" + book.getYear()
+                + ",\"totalCopies\":" + book.getTotalCopies()
+                + ",\"availableCopies\":" + book.getAvailableCopies() + "}";
+    }
+
+    static String user(User user) {
+        return "{\"id\":" + user.getId()
+                + ",\"name\":" + string(user.getName())
+                + ",\"email\":" + string(user.getEmail()) + "}";
+    }
+
+    static String loan(Loan loan) {
+        return "{\"id\":" + loan.getId()
+                + ",\"bookId\":" + loan.getBookId()
+                + ",\"userId\":" + loan.getUserId()
+                + ",\"loanDate\":" + date(loan.getLoanDate())
+                + ",\"returnDate\":" + date(loan.getReturnDate())
+                + ",\"expired\":" + loan.isExpired() + "}";
+    }
+
+    static <T> String array(Collection<T> values, Function<T, String> toJson) {
+        StringBuilder result = new StringBuilder("[");
+        for (T value : values) {
+            if (result.length() > 1) {
+                result.append(',');
+            }
+            result.append(toJson.apply(value));
+        }
+        return result.append(']').toString();
+    }
+
+    // Страница: {"items": [...], "nextCursor": N}, nextCursor = null на последней странице
+    static <T> String page(Page<T> page, Function<T, String> toJson) {
+        return "{\"items\":" + array(page.items(), toJson)
+                + ",\"nextCursor\":" + (page.hasNext() ? String.valueOf(page.nextCursor()) : "null") + "}";
+    }
+
+    static String field(String name, Object value) {
+        return "{" + string(name) + ":" + (value instanceof String text ? string(text) : String.valueOf(value)) + "}";
+    }
+
+    static String error(String message) {
+        return field("error", message != null ? message : "Внутренняя ошибка сервера.");
+    }
+
+    private static String date(LocalDate date) {
+        return date != null ? "\"" + date + "\"" : "null";
+    }
+
+    static String string(String value) {
+        StringBuilder result = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> result.append("\\\"");
+                case '\\' -> result.append("\\\\");
+                case '\n' -> result.append("\\n");
+                case '\r' -> result.append("\\r");
+                case '\t' -> result.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        result.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        result.append(c);
+                    }
+                }
+            }
+        }
+        return result.append('"').toString();
+    }
+}
@@ -0,0 +1,362 @@
+package ui;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import exceptions.BookAlreadyExistsException;
+import exceptions.BookFromUserNotFoundException;
+import exceptions.BookNotFoundException;
+import exceptions.BookValidationException;
+import exceptions.NoBooksAvailableException;
+import exceptions.UserAlreadyExistsException;
+import exceptions.UserBookQuotaExceededException;
+import exceptions.UserNotFoundException;
+import model.Book;
+import model.Library;
+import model.Loan;
+import model.Page;
+import model.User;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// HTTP API библиотеки на встроенном сервере JDK. Каждый запрос обрабатывается в своём
+// виртуальном потоке, если их поддерживает JVM (Java 21+), иначе в потоке кешируемого пула.
+// Все запросы работают с одним экземпляром Library, его операции потокобезопасны.
+// Ответы - JSON в UTF-8. Параметры передаются в строке запроса или в теле POST
+// (application/x-www-form-urlencoded).
+//
+//   GET  /books?query=Q&limit=N              поиск книг, без запроса - первые limit книг по id
+//   GET  /books/{id}                         книга
+//   GET  /books/{id}/loans                   история выдач книги
+//   POST /books?title=&author=&year=&copies= добавление книги, ответ {"id": N}
+//   GET  /users?query=Q&limit=N              поиск читателей
+//   GET  /users/{id}                         читатель
+//   GET  /users/{id}/loans                   история выдач читателя
+//   GET  /users/{id}/current                 книги на руках у читателя
+//   POST /users?name=&email=                 регистрация читателя, ответ {"id": N}
+//   GET  /loans?cursor=C&limit=N             все выдачи страницами
+//   GET  /loans/{id}                         выдача
+//   POST /borrow?userId=&bookId=             выдача книги
+//   POST /return?userId=&bookId=             возврат книги
+//   GET  /overdue?cursor=C&limit=N           просроченные выдачи страницами
+//
+// Списки книг, читателей и историй выдач (/books, /users, /loans, /books/{id}/loans,
+// /users/{id}/loans) с параметром cursor отдаются страницами по возрастанию id:
+// {"items": [...], "nextCursor": N}. Первая страница - cursor=0, следующая - cursor=nextCursor,
+// на последней странице nextCursor = null. В режиме страниц query не используется.
+// /overdue отдаётся страницами всегда, по дню окончания срока, затем по id.
+//
+// Ошибки: 400 - некорректный запрос, 404 - не найдено, 405 - другой метод, 409 - операция
+// невозможна (нет экземпляров, лимит читателя, дубликат), 500 - ошибка хранилища.
+// Тело ответа с ошибкой: {"error": "сообщение"}. При 500 сообщение общее, причина пишется
+// в журнал сервера (System.Logger).
+//
+// Процесс с сервером запускается с -Dsun.net.httpserver.nodelay=true (Main и LoadDriver задают
+// его сами): без этого каждый ответ задерживается до 40 мс, см. Main.startHttp.
+public class LibraryHttpServer {
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 1000;
+    // Подробности внутренних ошибок хранилища клиенту не отдаются, они пишутся в журнал сервера
+    private static final String INTERNAL_ERROR = "Внутренняя ошибка сервера.";
+    private static final System.Logger LOG = System.getLogger(LibraryHttpServer.class.getName());
+
+    private final Library library;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    public LibraryHttpServer(Library library, int port) throws IOException {
+        this.library = library;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : platformThreadExecutor();
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    // Остановка: новые соединения не принимаются, начатые запросы получают секунду на завершение
+    public void stop() {
+        this.server.stop(1);
+        this.executor.shutdown();
+    }
+
+    // Порт сервера, в том числе выбранный системой при запуске с портом 0
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    public boolean usesVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    // Проект собирается под Java 17, поэтому виртуальные потоки подключаются через отражение
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService platformThreadExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "library-http-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = this.route(exchange);
+        } catch (HttpError e) {
+            status = e.status;
+            body = Json.error(e.getMessage());
+        } catch (IOException e) {
+            // Тело запроса не удалось прочитать: клиент оборвал соединение или прислал мусор
+            status = 400;
+            body = Json.error("Не удалось прочитать запрос.");
+        } catch (RuntimeException e) {
+            status = statusOf(e);
+            body = Json.error(status == 500 ? INTERNAL_ERROR : e.getMessage());
+            if (status == 500) {
+                LOG.log(System.Logger.Level.ERROR, exchange.getRequestMethod() + " " + exchange.getRequestURI(), e);
+            }
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static int statusOf(RuntimeException e) {
+        if (e instanceof BookNotFoundException || e instanceof UserNotFoundException) {
+            return 404;
+        }
+        if (e instanceof NoBooksAvailableException || e instanceof UserBookQuotaExceededException
+                || e instanceof BookFromUserNotFoundException || e instanceof BookAlreadyExistsException
+                || e instanceof UserAlreadyExistsException || e instanceof IllegalStateException) {
+            return 409;
+        }
+        // Library оборачивает ошибки ввода-вывода хранилища в IllegalArgumentException
+        if (e.getCause() instanceof IOException || e instanceof UncheckedIOException) {
+            return 500;
+        }
+        if (e instanceof BookValidationException || e instanceof IllegalArgumentException) {
+            return 400;
+        }
+        return 500;
+    }
+
+    private String route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+        Map<String, String> params = parameters(exchange);
+        String resource = path[0];
+        if (path.length == 1) {
+            return switch (resource) {
+                case "books" -> method.equals("POST") ? this.addBook(params) : this.get(method, () -> this.searchBooks(params));
+                case "users" -> method.equals("POST") ? this.addUser(params) : this.get(method, () -> this.searchUsers(params));
+                case "loans" -> this.get(method, () -> Json.page(
+                        this.library.getLoansPage(intParam(params, "cursor"), limit(params)), Json::loan));
+                case "borrow" -> this.post(method, () -> Json.loan(this.library.borrowBook(
+                        intParam(params, "userId"), intParam(params, "bookId"))));
+                case "return" -> this.post(method, () -> this.returnBook(params));
+                case "overdue" -> this.get(method, () -> Json.page(this.library.getExpiredLoansPage(
+                        params.containsKey("cursor") ? intParam(params, "cursor") : Page.FIRST, limit(params)), Json::loan));
+                default -> throw new HttpError(404, "Неизвестный адрес: " + exchange.getRequestURI().getPath());
+            };
+        }
+        int id = parseInt("id", path[1]);
+        String view = path.length > 2 ? path[2] : "";
+        if (path.length <= 3) {
+            switch (resource + "/" + view) {
+                case "books/" -> {
+                    return this.get(method, () -> Json.book(this.book(id)));
+                }
+                case "books/loans" -> {
+                    return this.get(method, () -> params.containsKey("cursor")
+                            ? Json.page(this.library.getBookLoanHistoryPage(this.book(id).getId(),
+                                    intParam(params, "cursor"), limit(params)), Json::loan)
+                            : Json.array(this.library.getBookLoanHistory(this.book(id).getId()), Json::loan));
+                }
+                case "users/" -> {
+                    return this.get(method, () -> Json.user(this.user(id)));
+                }
+                case "users/loans" -> {
+                    return this.get(method, () -> params.containsKey("cursor")
+                            ? Json.page(this.library.getUserLoansPage(this.user(id).getId(),
+                                    intParam(params, "cursor"), limit(params)), Json::loan)
+                            : Json.array(this.library.getUserLoans(this.user(id).getId()), Json::loan));
+                }
+                case "users/current" -> {
+                    return this.get(method, () -> Json.array(this.library.getCurrentLoans(this.user(id).getId()), Json::loan));
+                }
+                case "loans/" -> {
+                    return this.get(method, () -> {
+                        Loan loan = this.library.getLoan(id);
+                        if (loan == null) {
+                            throw new HttpError(404, "Выдача с id=" + id + " не найдена.");
+                        }
+                        return Json.loan(loan);
+                    });
+                }
+                default -> {
+                }
+            }
+        }
+        throw new HttpError(404, "Неизвестный адрес: " + exchange.getRequestURI().getPath());
+    }
+
+    private String get(String method, Handler handler) {
+        if (!method.equals("GET")) {
+            throw new HttpError(405, "Метод " + method + " не поддерживается.");
+        }
+        return handler.handle();
+    }
+
+    private String post(String method, Handler handler) {
+        if (!method.equals("POST")) {
+            throw new HttpError(405, "Метод " + method + " не поддерживается.");
+        }
+        return handler.handle();
+    }
+
+    private interface Handler {
+        String handle();
+    }
+
+    private String searchBooks(Map<String, String> params) {
+        if (params.containsKey("cursor")) {
+            return Json.page(this.library.getBooksPage(intParam(params, "cursor"), limit(params)), Json::book);
+        }
+        String query = params.getOrDefault("query", "");
+        if (query.isBlank()) {
+            return Json.array(this.library.getBooksPage(Page.FIRST, limit(params)).items(), Json::book);
+        }
+        return Json.array(this.library.searchBooks(query, limit(params)), Json::book);
+    }
+
+    private String searchUsers(Map<String, String> params) {
+        if (params.containsKey("cursor")) {
+            return Json.page(this.library.getUsersPage(intParam(params, "cursor"), limit(params)), Json::user);
+        }
+        return Json.array(this.library.searchUsers(params.getOrDefault("query", ""), limit(params)), Json::user);
+    }
+
+    private String addBook(Map<String, String> params) {
+        Book book = new Book(requiredParam(params, "title"), requiredParam(params, "author"),
+                intParam(params, "year"), intParam(params, "copies"));
+        return Json.field("id", this.library.addBook(book));
+    }
+
+    private String addUser(Map<String, String> params) {
+        User user = new User(requiredParam(params, "name"), requiredParam(params, "email"), this.library);
+        this.library.addUser(user);
+        return Json.field("id", user.getId());
+    }
+
+    private String returnBook(Map<String, String> params) {
+        this.library.returnBook(intParam(params, "userId"), intParam(params, "bookId"));
+        return Json.field("returned", true);
+    }
+
+    private Book book(int id) {
+        Book book = this.library.getBook(id);
+        if (book == null) {
+            throw new BookNotFoundException("Книга с id=" + id + " не найдена.");
+        }
+        return book;
+    }
+
+    private User user(int id) {
+        User user = this.library.getUser(id);
+        if (user == null) {
+            throw new UserNotFoundException("Читатель с id=" + id + " не найден.");
+        }
+        return user;
+    }
+
+    private static int limit(Map<String, String> params) {
+        String value = params.get("limit");
+        int limit = value != null ? parseInt("limit", value) : DEFAULT_LIMIT;
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new HttpError(400, "Параметр limit должен быть от 1 до " + MAX_LIMIT + ".");
+        }
+        return limit;
+    }
+
+    private static String requiredParam(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new HttpError(400, "Не задан параметр " + name + ".");
+        }
+        return value;
+    }
+
+    private static int intParam(Map<String, String> params, String name) {
+        return parseInt(name, requiredParam(params, name));
+    }
+
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Параметр " + name + " должен быть целым числом: " + value);
+        }
+    }
+
+    // Параметры строки запроса и формы в теле POST
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            parseForm(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) return;
+        for (String pair : form.split("&")) {
+            if (pair.isEmpty()) continue;
+            int separator = pair.indexOf('=');
+            String name = separator >= 0 ? pair.substring(0, separator) : pair;
+            String value = separator >= 0 ? pair.substring(separator + 1) : "";
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    // Ответ с заданным кодом состояния
+    private static final class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -5,18 +5,31 @@ import model.Library;
 import model.Loan;
 import model.User;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class LibraryUI {
     private final Library library;
     private final Scanner scanner = new Scanner(System.in);
 
+    private static final int SEARCH_LIMIT = 50;
+    private static final int PAGE_SIZE = 20;
+
     public LibraryUI() {
         this.library = new Library();
         this.library.initLibrary();
+        this.library.getLoadStats().forEach(System.out::println);
+        this.library.getMetrics().register("library");
     }
 
     public void start() {
@@ -35,6 +48,9 @@ public class LibraryUI {
                     "11. Просроченные выдачи\n" +
                     "12. История выдач по пользователю\n" +
                     "13. История выдач по книге\n" +
+                    "14. Статистика операций\n" +
+                    "15. Импорт из CSV\n" +
+                    "16. Экспорт в CSV\n" +
                     " 0. Выход\n" +
                     "Выберите пункт: "
             );
@@ -54,7 +70,11 @@ public class LibraryUI {
                     case "11" -> showExpiredLoans();
                     case "12" -> showUserLoanHistory();
                     case "13" -> showBookLoanHistory();
+                    case "14" -> showMetrics();
+                    case "15" -> importCsv();
+                    case "16" -> exportCsv();
                     case "0" -> {
+                        library.close();
                         System.out.println("Выход...");
                         return;
                     }
@@ -118,13 +138,9 @@ public class LibraryUI {
     private List<Book> searchBook() {
         System.out.println("*** Поиск книги ***");
         System.out.print("Введите название, автора или год: ");
-        String query = scanner.nextLine().toLowerCase();
+        String query = scanner.nextLine();
 
-        List<Book> resBooks = library.getBooks().values().stream()
-                .filter(b -> b.getTitle().toLowerCase().contains(query)
-                        || b.getAuthor().toLowerCase().contains(query)
-                        || String.valueOf(b.getYear()).contains(query))
-                .collect(Collectors.toList());
+        List<Book> resBooks = library.searchBooks(query, SEARCH_LIMIT);
 
         if (resBooks.isEmpty()) {
             System.out.println("Книг не найдено.");
@@ -138,13 +154,9 @@ public class LibraryUI {
     private List<User> searchUser() {
         System.out.println("*** Поиск читателя ***");
         System.out.print("Введите id, имя или email: ");
-        String query = scanner.nextLine().toLowerCase();
+        String query = scanner.nextLine();
 
-        List<User> results = library.getUsers().values().stream()
-                .filter(u -> String.valueOf(u.getId()).equals(query)
-                        || u.getName().toLowerCase().contains(query)
-                        || u.getEmail().toLowerCase().contains(query))
-                .collect(Collectors.toList());
+        List<User> results = library.searchUsers(query, SEARCH_LIMIT);
 
         if (results.isEmpty()) {
             System.out.println("Читателей не найдено.");
@@ -198,7 +210,9 @@ public class LibraryUI {
             return;
         }
 
-        library.borrowBook(user.getId(), book.getId());
+        Loan loan = library.borrowBook(user.getId(), book.getId());
+        System.out.println("Книга выдана:");
+        System.out.println(loan);
         askReturn();
     }
 
@@ -279,10 +293,10 @@ public class LibraryUI {
     }
 
     private void showBorrowsBooks() {
-        Set<Integer> activeUsers = library.getLoans().values().stream()
-                .filter(loan -> !loan.isExpired())
-                .map(Loan::getUserId)
-                .collect(Collectors.toSet());
+        Set<Integer> activeUsers = new LinkedHashSet<>();
+        for (Loan loan : library.getActiveLoans()) {
+            activeUsers.add(loan.getUserId());
+        }
 
         if (activeUsers.isEmpty()) {
             System.out.println("Книг на руках у читателей сейчас нет.");
@@ -290,7 +304,7 @@ public class LibraryUI {
             System.out.println("\n*** Все книги на руках ***");
 
             for (int userId : activeUsers) {
-                List<Loan> userLoans = library.getUser(userId).getCurrentLoans();
+                List<Loan> userLoans = library.getCurrentLoans(userId);
                 userLoans.forEach(loan -> System.out.println(loan + "\n---------------------------------------------"));
             }
         }
@@ -298,39 +312,57 @@ public class LibraryUI {
     }
 
     private void showAllUsers() {
-        if (library.getUsers().isEmpty()) {
+        System.out.println("\n*** Все зарегистрированные читатели ***");
+        if (!printPaged(library.streamUsers(), System.out::println)) {
             System.out.println("Нет зарегистрированных читателей.");
-        } else {
-            System.out.println("\n*** Все зарегистрированные читатели ***");
-            library.getUsers().values().forEach(System.out::println);
         }
         askReturn();
     }
 
     private void showAllBooks() {
-        if (library.getBooks().isEmpty()) {
+        System.out.println("\n*** Все зарегистрированные книги ***");
+        if (!printPaged(library.streamBooks(), System.out::println)) {
             System.out.println("Нет зарегистрированных книг.");
-        } else {
-            System.out.println("\n*** Все зарегистрированные книги ***");
-            library.getBooks().values().forEach(System.out::println);
         }
         askReturn();
     }
 
-    private void showExpiredLoans() {
-        List<Loan> expiredLoans = library.getExpiredLoans();
-
-        if (expiredLoans.isEmpty()) {
-            System.out.println("Просроченных книг не найдено.");
-            askReturn();
-            return;
+    // Вывод по PAGE_SIZE записей: следующая страница читается из потока только по запросу.
+    // Возвращает false, если поток пуст.
+    private <T> boolean printPaged(Stream<T> items, Consumer<T> printer) {
+        Iterator<T> iterator = items.iterator();
+        if (!iterator.hasNext()) {
+            return false;
         }
+        int printed = 0;
+        while (iterator.hasNext()) {
+            printer.accept(iterator.next());
+            if (++printed % PAGE_SIZE == 0 && iterator.hasNext()) {
+                System.out.print("Enter - следующая страница, 0 - закончить просмотр: ");
+                if (scanner.nextLine().strip().equals("0")) {
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void printLoan(Loan loan) {
+        System.out.println(loan);
+        System.out.println("---------------------------------------------");
+    }
+
+    private void showMetrics() {
+        System.out.println("\n*** Статистика операций ***");
+        System.out.print(library.getMetrics().dump());
+        askReturn();
+    }
 
+    private void showExpiredLoans() {
         System.out.println("\n*** Просроченные выдачи книг ***");
-        expiredLoans.forEach(loan -> {
-            System.out.println(loan);
-            System.out.println("---------------------------------------------");
-        });
+        if (!printPaged(library.streamExpiredLoans(), LibraryUI::printLoan)) {
+            System.out.println("Просроченных книг не найдено.");
+        }
         askReturn();
     }
 
@@ -352,18 +384,10 @@ public class LibraryUI {
             return;
         }
 
-        List<Loan> loans = library.getUserLoanHistory(userId);
-        if (loans.isEmpty()) {
+        System.out.println("\n*** История выдач пользователя ***");
+        if (!printPaged(library.streamUserLoans(userId), LibraryUI::printLoan)) {
             System.out.println("У пользователя нет истории получения книг.");
-            askReturn();
-            return;
         }
-
-        System.out.println("\n*** История выдач пользователя ***");
-        loans.forEach(loan -> {
-            System.out.println(loan);
-            System.out.println("---------------------------------------------");
-        });
         askReturn();
     }
 
@@ -383,21 +407,48 @@ public class LibraryUI {
             return;
         }
 
-        List<Loan> loans = library.getBookLoanHistory(bookId);
-        if (loans.isEmpty()) {
+        System.out.println("\n*** История выдач книги ***");
+        if (!printPaged(library.streamBookLoanHistory(bookId), LibraryUI::printLoan)) {
             System.out.println("Книга никогда не выдавалась.");
-            askReturn();
-            return;
         }
+        askReturn();
+    }
 
-        System.out.println("\n*** История выдач книги ***");
-        loans.forEach(loan -> {
-            System.out.println(loan);
-            System.out.println("---------------------------------------------");
-        });
+    // Книги: title,author,year,copies; читатели: name,email. Файлы в UTF-8.
+    private void importCsv() throws IOException {
+        System.out.println("*** Импорт из CSV ***");
+        boolean books = askBooksOrUsers();
+        System.out.print("Путь к файлу: ");
+        Path path = Path.of(scanner.nextLine().trim());
+        try (Reader reader = Files.newBufferedReader(path)) {
+            System.out.println(books ? library.importBooks(reader) : library.importUsers(reader));
+        }
+        askReturn();
+    }
+
+    private void exportCsv() throws IOException {
+        System.out.println("*** Экспорт в CSV ***");
+        boolean books = askBooksOrUsers();
+        System.out.print("Путь к файлу: ");
+        Path path = Path.of(scanner.nextLine().trim());
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            int count = books ? library.exportBooks(writer) : library.exportUsers(writer);
+            System.out.println("Выгружено записей: " + count);
+        }
         askReturn();
     }
 
+    private boolean askBooksOrUsers() {
+        while (true) {
+            System.out.print("1 - книги, 2 - читатели: ");
+            String choice = scanner.nextLine().trim();
+            if (choice.equals("1") || choice.equals("2")) {
+                return choice.equals("1");
+            }
+            System.out.println("Неверный выбор. Повторите.");
+        }
+    }
+
     private void askReturn() {
         System.out.print("Нажмите Enter для возврата в меню...");
         scanner.nextLine();